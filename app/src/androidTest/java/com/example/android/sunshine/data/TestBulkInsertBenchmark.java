@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_DATE;
+import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_DEGREES;
+import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_HUMIDITY;
+import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_LOC_KEY;
+import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_MAX_TEMP;
+import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_MIN_TEMP;
+import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_PRESSURE;
+import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_WEATHER_ID;
+import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_WIND_SPEED;
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Compares the compiled statement used by {@link WeatherProvider#insertForecast} against
+ * inserting every row with SQLiteDatabase#insert, which is what WeatherProvider#bulkInsert used
+ * to do. Timings for each size are written to logcat under the tag of this class.
+ * <p>
+ * Wall-clock times on a shared device or emulator vary too much to fail the build on, so the
+ * benchmarks only check that every row was inserted, and leave comparing the times to whoever
+ * reads the log.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestBulkInsertBenchmark {
+
+    private static final String TAG = TestBulkInsertBenchmark.class.getSimpleName();
+
+    /* Timed runs of each way of inserting, after the warm-up */
+    private static final int ROUNDS = 4;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private WeatherDbHelper mDbHelper;
+    private SQLiteDatabase mDatabase;
+
+    @Before
+    public void setUp() {
+        mDbHelper = new WeatherDbHelper(mContext);
+        mDatabase = mDbHelper.getWritableDatabase();
+        mDatabase.delete(WeatherContract.WeatherEntry.TABLE_NAME, null, null);
+    }
+
+    @After
+    public void tearDown() {
+        mDatabase.delete(WeatherContract.WeatherEntry.TABLE_NAME, null, null);
+        mDbHelper.close();
+    }
+
+    @Test
+    public void benchmarkForecastSizedInsert() {
+        benchmark(14);
+    }
+
+    @Test
+    public void benchmarkThousandRowInsert() {
+        benchmark(1000);
+    }
+
+    /**
+     * This is the backfill case we care about most. With this many rows the per-row overhead of
+     * SQLiteDatabase#insert clearly dominates.
+     */
+    @Test
+    public void benchmarkHundredThousandRowInsert() {
+        benchmark(100000);
+    }
+
+    /**
+     * Inserts the same rows using SQLiteDatabase#insert and using the compiled statement, each
+     * inside its own transaction on an empty table. Both are run once to warm up before being
+     * timed, and then ROUNDS times each, taking turns at going first so that neither always
+     * runs on a colder cache or a fresher heap. The fastest round of each is logged.
+     *
+     * @param rowCount Number of rows to insert
+     */
+    private void benchmark(int rowCount) {
+        ContentValues[] values = createRows(rowCount);
+
+        timeInsert(values, false);
+        timeInsert(values, true);
+
+        long insertNanos = Long.MAX_VALUE;
+        long compiledNanos = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            boolean compiledFirst = round % 2 == 1;
+            long firstNanos = timeInsert(values, compiledFirst);
+            long secondNanos = timeInsert(values, !compiledFirst);
+
+            insertNanos = Math.min(insertNanos, compiledFirst ? secondNanos : firstNanos);
+            compiledNanos = Math.min(compiledNanos, compiledFirst ? firstNanos : secondNanos);
+        }
+
+        Log.i(TAG, rowCount + " rows: SQLiteDatabase#insert " + insertNanos / 1000 + "us, "
+                + "compiled statement " + compiledNanos / 1000 + "us, "
+                + "speedup " + String.format("%.2f", (double) insertNanos / compiledNanos) + "x");
+    }
+
+    private long timeInsert(ContentValues[] values, boolean useCompiledStatement) {
+        mDatabase.delete(WeatherContract.WeatherEntry.TABLE_NAME, null, null);
+
+        long start = System.nanoTime();
+        mDatabase.beginTransaction();
+        try {
+            if (useCompiledStatement) {
+                WeatherProvider.insertForecast(mDatabase, values);
+            } else {
+                for (ContentValues value : values) {
+                    mDatabase.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
+                }
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        assertEquals("Every row should have been inserted",
+                values.length,
+                DatabaseUtils.queryNumEntries(mDatabase, WeatherContract.WeatherEntry.TABLE_NAME));
+
+        return elapsed;
+    }
+
+    private static ContentValues[] createRows(int rowCount) {
+        ContentValues[] rows = new ContentValues[rowCount];
+        long date = TestUtilities.DATE_NORMALIZED;
+
+        for (int i = 0; i < rowCount; i++, date += SunshineDateUtils.DAY_IN_MILLIS) {
+            ContentValues weatherValues = new ContentValues();
+            weatherValues.put(COLUMN_LOC_KEY, TestUtilities.TEST_LOCATION_ID);
+            weatherValues.put(COLUMN_DATE, date);
+            weatherValues.put(COLUMN_DEGREES, 1.1);
+            weatherValues.put(COLUMN_HUMIDITY, 1.2 + 0.01 * (i % 100));
+            weatherValues.put(COLUMN_PRESSURE, 1.3 - 0.01 * (i % 100));
+            weatherValues.put(COLUMN_MAX_TEMP, 75 + i % 10);
+            weatherValues.put(COLUMN_MIN_TEMP, 65 - i % 10);
+            weatherValues.put(COLUMN_WIND_SPEED, 5.5);
+            weatherValues.put(COLUMN_WEATHER_ID, 321);
+            rows[i] = weatherValues;
+        }
+
+        return rows;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+
+/**
+ * Tests the {@link ForecastCache} that WeatherProvider answers repeated queries from.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestForecastCache {
+
+    private static final String[] COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID
+    };
+
+    private static final String KEY = ForecastCache.buildKey(
+            WeatherContract.WeatherEntry.CONTENT_URI, COLUMNS, null, null, null);
+
+    private static Cursor createCursor() {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        cursor.addRow(new Object[]{TestUtilities.DATE_NORMALIZED, 75.5, 321L});
+        cursor.addRow(new Object[]{TestUtilities.DATE_NORMALIZED + 1, 70.25, 800L});
+        return cursor;
+    }
+
+    /**
+     * A cached result should come back with the same columns, values and types, positioned before
+     * its first row, and the cursor that was cached should be left ready to be read by its caller.
+     */
+    @Test
+    public void testCachedRowsMatchQueriedRows() {
+        ForecastCache cache = new ForecastCache();
+
+        Cursor queried = createCursor();
+        cache.put(KEY, cache.getGeneration(), queried);
+        assertEquals("The cached cursor should be moved back before its first row",
+                -1,
+                queried.getPosition());
+        queried.close();
+
+        Cursor cached = cache.get(KEY);
+        assertNotNull("A result that was put should be cached", cached);
+        assertEquals(-1, cached.getPosition());
+        assertEquals(2, cached.getCount());
+
+        cached.moveToLast();
+        assertEquals(TestUtilities.DATE_NORMALIZED + 1, cached.getLong(0));
+        assertEquals(70.25, cached.getDouble(1), 0);
+        assertEquals(Cursor.FIELD_TYPE_INTEGER, cached.getType(2));
+        cached.close();
+    }
+
+    /**
+     * A result with more rows than the cache holds should neither be copied nor cached, and the
+     * cursor should be left untouched for the caller.
+     */
+    @Test
+    public void testOversizedResultIsNotCached() {
+        ForecastCache cache = new ForecastCache();
+
+        MatrixCursor queried = new MatrixCursor(COLUMNS);
+        for (int i = 0; i <= ForecastCache.MAX_CACHED_ROWS; i++) {
+            queried.addRow(new Object[]{TestUtilities.DATE_NORMALIZED + i, 75.5, 321L});
+        }
+
+        cache.put(KEY, cache.getGeneration(), queried);
+        assertEquals("The cursor should not have been read", -1, queried.getPosition());
+        queried.close();
+
+        assertNull("A result larger than the cache should not be cached", cache.get(KEY));
+    }
+
+    /**
+     * A query that started before a write but finished after it must not be cached, and nothing
+     * cached before a write may be returned after it.
+     */
+    @Test
+    public void testInvalidateDropsOlderGenerations() {
+        ForecastCache cache = new ForecastCache();
+
+        cache.put(KEY, cache.getGeneration(), createCursor());
+        long generationBeforeWrite = cache.getGeneration();
+
+        cache.invalidate();
+        assertNull("Invalidating should drop cached results", cache.get(KEY));
+
+        cache.put(KEY, generationBeforeWrite, createCursor());
+        assertNull("Results queried before the last write should not be cached", cache.get(KEY));
+    }
+
+    /**
+     * Queries that differ in any argument must be cached separately.
+     */
+    @Test
+    public void testKeysIncludeEveryQueryArgument() {
+        Uri uri = WeatherContract.WeatherEntry.CONTENT_URI;
+
+        assertFalse(KEY.equals(ForecastCache.buildKey(uri, null, null, null, null)));
+        assertFalse(ForecastCache.buildKey(uri, COLUMNS, "date >= ?", new String[]{"1"}, null)
+                .equals(ForecastCache.buildKey(uri, COLUMNS, "date >= ?", new String[]{"2"}, null)));
+        assertFalse(KEY.equals(ForecastCache.buildKey(uri, COLUMNS, null, null, "date ASC")));
+    }
+}
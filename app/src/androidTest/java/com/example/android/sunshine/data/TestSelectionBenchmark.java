@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDebug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.MainActivity;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Compares running MainActivity's forecast query with today's date written into the selection,
+ * which is what WeatherEntry#getSqlSelectForTodayOnwards used to return, against binding it as a
+ * selection argument. Timings are written to logcat under the tag of this class.
+ * <p>
+ * SQLite has to compile every distinct SQL string before running it. A selection that contains
+ * a value is a distinct string for every value, so it is compiled on every run and evicts other
+ * statements from the connection's prepared statement cache. A bound selection is compiled once.
+ * The hit rate of that cache during each run is logged along with its time. The same numbers can
+ * be read from the "cache" column of the DATABASES section of
+ * "adb shell dumpsys meminfo com.example.android.sunshine".
+ * <p>
+ * Wall-clock times on a shared device or emulator vary too much to fail the build on, so nothing
+ * here is asserted on but the query results.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestSelectionBenchmark {
+
+    private static final String TAG = TestSelectionBenchmark.class.getSimpleName();
+
+    private static final int QUERIES_TO_RUN = 1000;
+
+    /* Timed runs of each kind of selection, after the warm-up */
+    private static final int ROUNDS = 4;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private WeatherDbHelper mDbHelper;
+    private SQLiteDatabase mDatabase;
+
+    @Before
+    public void setUp() {
+        mDbHelper = new WeatherDbHelper(mContext);
+        mDatabase = mDbHelper.getWritableDatabase();
+        mDatabase.delete(WeatherContract.WeatherEntry.TABLE_NAME, null, null);
+
+        for (ContentValues day : TestUtilities.createBulkInsertTestWeatherValues()) {
+            mDatabase.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, day);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mDatabase.delete(WeatherContract.WeatherEntry.TABLE_NAME, null, null);
+        mDbHelper.close();
+    }
+
+    @Test
+    public void benchmarkLiteralVersusBoundSelection() {
+        /* Warm up both, then take turns at going first so that neither always runs colder */
+        timeQueries(false);
+        timeQueries(true);
+
+        long literalNanos = 0;
+        long boundNanos = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            boolean boundFirst = round % 2 == 1;
+            long firstNanos = timeQueries(boundFirst);
+            long secondNanos = timeQueries(!boundFirst);
+
+            literalNanos += boundFirst ? secondNanos : firstNanos;
+            boundNanos += boundFirst ? firstNanos : secondNanos;
+        }
+
+        int queries = QUERIES_TO_RUN * ROUNDS;
+        Log.i(TAG, queries + " queries: literal selection " + literalNanos / 1000 + "us, "
+                + "bound selection " + boundNanos / 1000 + "us, "
+                + "speedup " + String.format("%.2f", (double) literalNanos / boundNanos) + "x");
+    }
+
+    /**
+     * Runs the forecast query for QUERIES_TO_RUN different dates, reading every row each time.
+     *
+     * @param bindDate true to bind the date as an argument, false to write it into the selection
+     * @return The time in nanoseconds taken to run all of the queries
+     */
+    private long timeQueries(boolean bindDate) {
+        long date = TestUtilities.DATE_NORMALIZED;
+
+        long[] cacheStatsBefore = getStatementCacheStats();
+        long start = System.nanoTime();
+        for (int i = 0; i < QUERIES_TO_RUN; i++, date -= SunshineDateUtils.DAY_IN_MILLIS) {
+            String selection;
+            String[] selectionArgs;
+            if (bindDate) {
+                selection = WeatherContract.WeatherEntry.getSqlSelectForTodayOnwards();
+                selectionArgs = new String[]{Long.toString(date)};
+            } else {
+                selection = WeatherContract.WeatherEntry.COLUMN_DATE + " >= " + date;
+                selectionArgs = null;
+            }
+
+            Cursor cursor = mDatabase.query(
+                    WeatherContract.WeatherEntry.TABLE_NAME,
+                    MainActivity.MAIN_FORECAST_PROJECTION,
+                    selection,
+                    selectionArgs,
+                    null,
+                    null,
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+
+            assertEquals("Every test row is after each of the dates we query from",
+                    TestUtilities.BULK_INSERT_RECORDS_TO_INSERT,
+                    cursor.getCount());
+            cursor.close();
+        }
+
+        long elapsed = System.nanoTime() - start;
+        long[] cacheStatsAfter = getStatementCacheStats();
+
+        if (cacheStatsBefore != null && cacheStatsAfter != null) {
+            long hits = cacheStatsAfter[0] - cacheStatsBefore[0];
+            long misses = cacheStatsAfter[1] - cacheStatsBefore[1];
+            Log.i(TAG, (bindDate ? "bound" : "literal") + " selection: statement cache "
+                    + hits + " hits, " + misses + " misses, hit rate "
+                    + String.format("%.1f", hits + misses == 0 ? 0 : 100.0 * hits / (hits + misses))
+                    + "%");
+        }
+
+        return elapsed;
+    }
+
+    /**
+     * Adds up the hits and misses of the prepared statement cache of every connection to our
+     * database, as reported by SQLiteDebug. The "cache" of each connection reads
+     * "hits/misses/size".
+     *
+     * @return {hits, misses}, or null if they couldn't be read on this version of Android
+     */
+    private static long[] getStatementCacheStats() {
+        long hits = 0;
+        long misses = 0;
+        boolean found = false;
+
+        for (SQLiteDebug.DbStats stats : SQLiteDebug.getDatabaseInfo().dbStats) {
+            if (stats.dbName == null || stats.cache == null
+                    || !stats.dbName.contains(WeatherDbHelper.DATABASE_NAME)) {
+                continue;
+            }
+
+            String[] counts = stats.cache.split("/");
+            if (counts.length < 2) continue;
+            try {
+                hits += Long.parseLong(counts[0].trim());
+                misses += Long.parseLong(counts[1].trim());
+                found = true;
+            } catch (NumberFormatException e) {
+                /* Not in the format we know, so skip this connection */
+            }
+        }
+
+        return found ? new long[]{hits, misses} : null;
+    }
+}
@@ -18,12 +18,18 @@ package com.example.android.sunshine.data;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteQueryBuilder;
 import android.provider.BaseColumns;
 import android.support.test.InstrumentationRegistry;
 import android.support.test.runner.AndroidJUnit4;
 
+import com.example.android.sunshine.MainActivity;
+import com.example.android.sunshine.utilities.NotificationUtils;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -32,6 +38,7 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.HashSet;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
 import static com.example.android.sunshine.data.TestUtilities.getConstantNameByStringValue;
@@ -56,7 +63,8 @@ import static junit.framework.Assert.fail;
  * with the same date will overwrite that record.
  * 4) Verify that NON NULL constraints are working properly on record inserts
  * 5) Verify auto increment is working with the ID
- * 6) Test the onUpgrade functionality of the WeatherDbHelper
+ * 6) Test the onUpgrade functionality of the WeatherDbHelper, both for versions we migrate
+ * without losing rows and for versions that are simply dropped and recreated
  */
 @RunWith(AndroidJUnit4.class)
 public class TestSunshineDatabase {
@@ -119,6 +127,24 @@ public class TestSunshineDatabase {
     private static final String columnWindDirVariableName = "COLUMN_DEGREES";
     static String REFLECTED_COLUMN_WIND_DIR;
 
+    /*
+     * The weather table exactly as version 3 of our database created it. The upgrade tests build
+     * a database with this schema by hand and then let WeatherDbHelper upgrade it. This must never
+     * change, even when the current schema does.
+     */
+    private static final String SQL_CREATE_WEATHER_TABLE_V3 =
+            "CREATE TABLE weather ("
+                    + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + "date INTEGER NOT NULL, "
+                    + "weather_id INTEGER NOT NULL, "
+                    + "min REAL NOT NULL, "
+                    + "max REAL NOT NULL, "
+                    + "humidity REAL NOT NULL, "
+                    + "pressure REAL NOT NULL, "
+                    + "wind REAL NOT NULL, "
+                    + "degrees REAL NOT NULL, "
+                    + "UNIQUE (date) ON CONFLICT REPLACE);";
+
     private SQLiteDatabase database;
     private SQLiteOpenHelper dbHelper;
 
@@ -193,7 +219,7 @@ public class TestSunshineDatabase {
 
     @Test
     public void testDatabaseVersionWasIncremented() {
-        int expectedDatabaseVersion = 3;
+        int expectedDatabaseVersion = 5;
         String databaseVersionShouldBe1 = "Database version should be "
                 + expectedDatabaseVersion + " but isn't."
                 + "\n Database version: ";
@@ -382,9 +408,9 @@ public class TestSunshineDatabase {
     }
 
     /**
-     * This method tests the {@link WeatherDbHelper#onUpgrade(SQLiteDatabase, int, int)}. The proper
-     * behavior for this method in our case is to simply DROP (or delete) the weather table from
-     * the database and then have the table recreated.
+     * This method tests the {@link WeatherDbHelper#onUpgrade(SQLiteDatabase, int, int)} for
+     * versions it doesn't know how to migrate. The proper behavior in that case is to simply DROP
+     * (or delete) the weather table from the database and then have the table recreated.
      */
     @Test
     public void testOnUpgradeBehavesCorrectly() {
@@ -436,14 +462,293 @@ public class TestSunshineDatabase {
         database.close();
     }
 
+    /**
+     * Tests that a database created by version 3 of our schema, the oldest version we migrate
+     * from, keeps its rows when WeatherDbHelper upgrades it to the current version. Version 3
+     * only stored a single location, so its rows should now belong to the preferred location.
+     */
+    @Test
+    public void testUpgradeFromVersion3KeepsRows() {
+        ContentValues testWeatherValues = TestUtilities.createTestWeatherContentValues();
+        testWeatherValues.remove(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+
+        SQLiteDatabase versionThreeDatabase = createDatabaseAtVersion(3, SQL_CREATE_WEATHER_TABLE_V3);
+        versionThreeDatabase.insert(REFLECTED_TABLE_NAME, null, testWeatherValues);
+        versionThreeDatabase.close();
+
+        assertUpgradeKeepsRecord(testWeatherValues);
+
+        WeatherDbHelper upgradedHelper = new WeatherDbHelper(context);
+        String locationOfUpgradedRow = DatabaseUtils.stringForQuery(
+                upgradedHelper.getReadableDatabase(),
+                "SELECT " + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING
+                        + " FROM " + WeatherContract.LocationEntry.TABLE_NAME
+                        + " WHERE " + WeatherContract.LocationEntry._ID + " = "
+                        + "(SELECT " + WeatherContract.WeatherEntry.COLUMN_LOC_KEY
+                        + " FROM " + REFLECTED_TABLE_NAME + ")",
+                null);
+        upgradedHelper.close();
+
+        assertEquals("Upgraded rows should belong to the preferred location",
+                SunshinePreferences.getPreferredWeatherLocation(context),
+                locationOfUpgradedRow);
+    }
+
+    /**
+     * Tests that upgrading a database from before version 5 creates the index that covers our
+     * forecast queries, just like creating a new database does.
+     */
+    @Test
+    public void testUpgradeCreatesForecastIndex() {
+        createDatabaseAtVersion(3, SQL_CREATE_WEATHER_TABLE_V3).close();
+
+        WeatherDbHelper upgradedHelper = new WeatherDbHelper(context);
+        long forecastIndexCount = DatabaseUtils.longForQuery(
+                upgradedHelper.getReadableDatabase(),
+                "SELECT COUNT(*) FROM sqlite_master WHERE type = 'index' AND name = ?",
+                new String[]{WeatherDbHelper.FORECAST_INDEX_NAME});
+        upgradedHelper.close();
+
+        assertEquals("Upgrade should create the forecast index", 1, forecastIndexCount);
+    }
+
+    /**
+     * Opens the database through a new WeatherDbHelper, which upgrades it to the current version,
+     * and verifies that the upgraded weather table contains exactly the given record.
+     *
+     * @param expectedValues The single record the weather table should contain after upgrading
+     */
+    private void assertUpgradeKeepsRecord(ContentValues expectedValues) {
+        WeatherDbHelper upgradingHelper = new WeatherDbHelper(context);
+        SQLiteDatabase upgradedDatabase = upgradingHelper.getWritableDatabase();
+
+        assertEquals("Database should have been upgraded to the current version",
+                REFLECTED_DATABASE_VERSION,
+                upgradedDatabase.getVersion());
+
+        Cursor weatherCursor = upgradedDatabase.query(
+                REFLECTED_TABLE_NAME, null, null, null, null, null, null);
+
+        assertEquals("Upgrade should keep the existing record", 1, weatherCursor.getCount());
+        TestUtilities.validateThenCloseCursor("Upgraded record doesn't match the original",
+                weatherCursor,
+                expectedValues);
+
+        upgradingHelper.close();
+    }
+
+    /**
+     * Replaces our database with one built by hand using an older version of our schema. This
+     * lets us test upgrades from the databases that older versions of Sunshine left behind.
+     *
+     * @param version          The version to mark the database with
+     * @param createStatements The statements that create the tables of that version
+     * @return The open database, which must be closed before opening it with WeatherDbHelper
+     */
+    private SQLiteDatabase createDatabaseAtVersion(int version, String... createStatements) {
+        dbHelper.close();
+        context.deleteDatabase(REFLECTED_DATABASE_NAME);
+
+        SQLiteDatabase olderDatabase = context.openOrCreateDatabase(
+                REFLECTED_DATABASE_NAME, Context.MODE_PRIVATE, null);
+        for (String createStatement : createStatements) {
+            olderDatabase.execSQL(createStatement);
+        }
+        olderDatabase.setVersion(version);
+
+        return olderDatabase;
+    }
+
+    /**
+     * Tests that {@link WeatherDbHelper#onConfigure(SQLiteDatabase)} switched our database to
+     * write-ahead logging with synchronous=NORMAL.
+     */
+    @Test
+    public void testWriteAheadLoggingIsEnabled() {
+        String journalMode = DatabaseUtils.stringForQuery(database, "PRAGMA journal_mode", null);
+        assertEquals("Database should use write-ahead logging", "wal", journalMode.toLowerCase());
+
+        /* 1 is NORMAL. See https://www.sqlite.org/pragma.html#pragma_synchronous */
+        long synchronous = DatabaseUtils.longForQuery(database, "PRAGMA synchronous", null);
+        assertEquals("Database should use synchronous=NORMAL", 1, synchronous);
+    }
+
+    /**
+     * Tests that a newly created database uses incremental auto-vacuum, which is what lets
+     * WeatherProvider give the pages of pruned weather back with PRAGMA incremental_vacuum
+     * instead of a full VACUUM.
+     */
+    @Test
+    public void testAutoVacuumIsIncremental() {
+        /* 2 is INCREMENTAL. See https://www.sqlite.org/pragma.html#pragma_auto_vacuum */
+        long autoVacuum = DatabaseUtils.longForQuery(database, "PRAGMA auto_vacuum", null);
+        assertEquals("Database should use incremental auto-vacuum", 2, autoVacuum);
+    }
+
+    /**
+     * Tests that reads don't wait for a write transaction that is in progress on another thread.
+     * The writer inserts a forecast and then holds its transaction open until the reader is done.
+     * With a rollback journal, the reader would have to wait until the writer gives up. With
+     * write-ahead logging, the reader gets its own connection and immediately sees the last
+     * committed state of the table, which is still empty.
+     */
+    @Test
+    public void testReadsProceedWhileBulkInsertIsInProgress() throws InterruptedException {
+        final CountDownLatch writerHasInserted = new CountDownLatch(1);
+        final CountDownLatch readerHasFinished = new CountDownLatch(1);
+
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                database.beginTransaction();
+                try {
+                    WeatherProvider.insertForecast(database,
+                            TestUtilities.createBulkInsertTestWeatherValues());
+                    writerHasInserted.countDown();
+                    readerHasFinished.await(5, TimeUnit.SECONDS);
+                    database.setTransactionSuccessful();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    database.endTransaction();
+                }
+            }
+        });
+        writer.start();
+
+        assertTrue("Writer never inserted its rows",
+                writerHasInserted.await(5, TimeUnit.SECONDS));
+
+        long readStart = System.nanoTime();
+        long rowsVisibleToReader = DatabaseUtils.queryNumEntries(database, REFLECTED_TABLE_NAME);
+        long readMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - readStart);
+
+        readerHasFinished.countDown();
+        writer.join();
+
+        assertEquals("Reader should not see rows from an uncommitted transaction",
+                0,
+                rowsVisibleToReader);
+
+        assertTrue("Reader was blocked by the writer for " + readMillis + "ms",
+                readMillis < 1000);
+
+        assertEquals("Writer's rows should be visible once it has committed",
+                TestUtilities.BULK_INSERT_RECORDS_TO_INSERT,
+                DatabaseUtils.queryNumEntries(database, REFLECTED_TABLE_NAME));
+    }
+
+    /**
+     * Tests that the query behind MainActivity's forecast list is answered from the forecast
+     * index alone, already in date order, rather than by reading rows from the weather table and
+     * sorting them.
+     */
+    @Test
+    public void testForecastListQueryIsCoveredByIndex() {
+        String forecastListQuery = SQLiteQueryBuilder.buildQueryString(
+                false,
+                REFLECTED_TABLE_NAME,
+                MainActivity.MAIN_FORECAST_PROJECTION,
+                DatabaseUtils.concatenateWhere(
+                        WeatherProvider.SQL_SELECT_LOCATION_SETTING,
+                        WeatherContract.WeatherEntry.getSqlSelectForTodayOnwards()),
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC",
+                null);
+
+        String queryPlan = explainQueryPlan(forecastListQuery, DatabaseUtils.appendSelectionArgs(
+                new String[]{"94043,USA"},
+                WeatherContract.WeatherEntry.getSelectionArgsForTodayOnwards()));
+
+        assertTrue("Forecast list should be read from the forecast index alone. Plan:\n"
+                        + queryPlan,
+                queryPlan.contains("COVERING INDEX " + WeatherDbHelper.FORECAST_INDEX_NAME));
+        assertFalse("Forecast list should not need to be sorted. Plan:\n" + queryPlan,
+                queryPlan.contains("TEMP B-TREE"));
+    }
+
+    /**
+     * Tests that the check SunshineSyncUtils makes for an empty forecast only reads an index.
+     */
+    @Test
+    public void testEmptyForecastCheckIsCoveredByIndex() {
+        String emptyCheckQuery = SQLiteQueryBuilder.buildQueryString(
+                false,
+                REFLECTED_TABLE_NAME,
+                new String[]{WeatherContract.WeatherEntry._ID},
+                DatabaseUtils.concatenateWhere(
+                        WeatherProvider.SQL_SELECT_LOCATION_SETTING,
+                        WeatherContract.WeatherEntry.getSqlSelectForTodayOnwards()),
+                null,
+                null,
+                null,
+                null);
+
+        String queryPlan = explainQueryPlan(emptyCheckQuery, DatabaseUtils.appendSelectionArgs(
+                new String[]{"94043,USA"},
+                WeatherContract.WeatherEntry.getSelectionArgsForTodayOnwards()));
+
+        assertTrue("Empty check should be read from an index alone. Plan:\n" + queryPlan,
+                queryPlan.contains("COVERING INDEX"));
+    }
+
+    /**
+     * Tests that the notification's query for today's weather is a lookup of a single row by
+     * location and date. SQLite answers it through the UNIQUE (location, date) index rather than
+     * the forecast index: a single probe of a unique index plus one row read is cheaper than
+     * searching the wider index, and doesn't get any slower as history accumulates.
+     */
+    @Test
+    public void testNotificationQueryIsSingleRowLookup() {
+        String notificationQuery = SQLiteQueryBuilder.buildQueryString(
+                false,
+                REFLECTED_TABLE_NAME,
+                NotificationUtils.WEATHER_NOTIFICATION_PROJECTION,
+                WeatherProvider.SQL_SELECT_LOCATION_SETTING + " AND "
+                        + WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ",
+                null,
+                null,
+                null,
+                null);
+
+        long today = SunshineDateUtils.normalizeDate(System.currentTimeMillis());
+        String queryPlan = explainQueryPlan(notificationQuery,
+                new String[]{"94043,USA", Long.toString(today)});
+
+        assertTrue("Today's weather should be looked up by location and date. Plan:\n"
+                        + queryPlan,
+                queryPlan.contains("location_id=? AND date=?"));
+        assertFalse("Today's weather should not scan the weather table. Plan:\n" + queryPlan,
+                queryPlan.contains("SCAN"));
+    }
+
+    /**
+     * Runs a query through EXPLAIN QUERY PLAN.
+     *
+     * @param sql           The query to explain
+     * @param selectionArgs The arguments of the query
+     * @return The detail column of each step of the plan, one per line
+     */
+    private String explainQueryPlan(String sql, String[] selectionArgs) {
+        Cursor planCursor = database.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+
+        StringBuilder queryPlan = new StringBuilder();
+        int detailIndex = planCursor.getColumnIndexOrThrow("detail");
+        while (planCursor.moveToNext()) {
+            queryPlan.append(planCursor.getString(detailIndex)).append('\n');
+        }
+        planCursor.close();
+
+        return queryPlan.toString();
+    }
+
     /**
      * This method tests that our database contains all of the tables that we think it should
-     * contain. Although in our case, we just have one table that we expect should be added
-     * <p>
-     * {@link com.example.android.sunshine.data.WeatherContract.WeatherEntry#TABLE_NAME}.
+     * contain. In our case, those are
      * <p>
-     * Despite only needing to check one table name in Sunshine, we set this method up so that
-     * you can use it in other apps to test databases with more than one table.
+     * {@link com.example.android.sunshine.data.WeatherContract.WeatherEntry#TABLE_NAME} and
+     * {@link com.example.android.sunshine.data.WeatherContract.LocationEntry#TABLE_NAME}.
      */
     @Test
     public void testCreateDb() {
@@ -454,8 +759,9 @@ public class TestSunshineDatabase {
          */
         final HashSet<String> tableNameHashSet = new HashSet<>();
 
-        /* Here, we add the name of our only table in this particular database */
+        /* Here, we add the names of the weather and location tables of this database */
         tableNameHashSet.add(REFLECTED_TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.LocationEntry.TABLE_NAME);
         /* Students, here is where you would add any other table names if you had them */
 //        tableNameHashSet.add(MyAwesomeSuperCoolTableName);
 //        tableNameHashSet.add(MyOtherCoolTableNameThatContainsOtherCoolData);
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.R;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests that the units cached by SunshinePreferences follow the user's preference.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestSunshinePreferences {
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private SharedPreferences mPreferences;
+    private String mUnitsKey;
+    private String mOriginalUnits;
+
+    @Before
+    public void setUp() {
+        mPreferences = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mUnitsKey = mContext.getString(R.string.pref_units_key);
+        mOriginalUnits = mPreferences.getString(mUnitsKey, null);
+    }
+
+    @After
+    public void tearDown() {
+        SharedPreferences.Editor editor = mPreferences.edit();
+        if (mOriginalUnits != null) {
+            editor.putString(mUnitsKey, mOriginalUnits);
+        } else {
+            editor.remove(mUnitsKey);
+        }
+        editor.commit();
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+    }
+
+    @Test
+    public void testIsMetricFollowsUnitsPreference() {
+        setUnits(R.string.pref_units_metric);
+        assertTrue(SunshinePreferences.isMetric(mContext));
+
+        setUnits(R.string.pref_units_imperial);
+        assertFalse("Changing the units should update the cached value",
+                SunshinePreferences.isMetric(mContext));
+
+        setUnits(R.string.pref_units_metric);
+        assertTrue(SunshinePreferences.isMetric(mContext));
+    }
+
+    /**
+     * Changes the units, and waits for SharedPreferences to tell its listeners on the main
+     * thread.
+     */
+    private void setUnits(int unitsResId) {
+        mPreferences.edit().putString(mUnitsKey, mContext.getString(unitsResId)).commit();
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+    }
+}
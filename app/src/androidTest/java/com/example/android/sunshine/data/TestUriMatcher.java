@@ -37,6 +37,11 @@ public class TestUriMatcher {
     private static final Uri TEST_WEATHER_DIR = WeatherContract.WeatherEntry.CONTENT_URI;
     private static final Uri TEST_WEATHER_WITH_DATE_DIR = WeatherContract.WeatherEntry
             .buildWeatherUriWithDate(TestUtilities.DATE_NORMALIZED);
+    private static final Uri TEST_WEATHER_WITH_LOCATION_DIR = WeatherContract.WeatherEntry
+            .buildWeatherUriWithLocation("94043,USA");
+    private static final Uri TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR = WeatherContract.WeatherEntry
+            .buildWeatherUriWithLocationAndDate("94043,USA", TestUtilities.DATE_NORMALIZED);
+    private static final Uri TEST_LOCATION_DIR = WeatherContract.LocationEntry.CONTENT_URI;
 
     private static final String weatherCodeVariableName = "CODE_WEATHER";
     private static int REFLECTED_WEATHER_CODE;
@@ -101,5 +106,18 @@ public class TestUriMatcher {
         assertEquals(weatherWithDateUriCodeDoesNotMatch,
                 expectedWeatherWithDateCode,
                 actualWeatherWithDateCode);
+
+        /* Test the URIs for the forecast of a location, for a day of it, and for locations */
+        assertEquals("Error: The CODE_WEATHER_WITH_LOCATION URI was matched incorrectly.",
+                WeatherProvider.CODE_WEATHER_WITH_LOCATION,
+                testMatcher.match(TEST_WEATHER_WITH_LOCATION_DIR));
+
+        assertEquals("Error: The CODE_WEATHER_WITH_LOCATION_AND_DATE URI was matched incorrectly.",
+                WeatherProvider.CODE_WEATHER_WITH_LOCATION_AND_DATE,
+                testMatcher.match(TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR));
+
+        assertEquals("Error: The CODE_LOCATION URI was matched incorrectly.",
+                WeatherProvider.CODE_LOCATION,
+                testMatcher.match(TEST_LOCATION_DIR));
     }
 }
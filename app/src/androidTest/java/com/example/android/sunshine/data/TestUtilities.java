@@ -35,6 +35,7 @@ import java.util.regex.Pattern;
 import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_DATE;
 import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_DEGREES;
 import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_HUMIDITY;
+import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_LOC_KEY;
 import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_MAX_TEMP;
 import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_MIN_TEMP;
 import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_PRESSURE;
@@ -59,6 +60,12 @@ class TestUtilities {
 
     static final int BULK_INSERT_RECORDS_TO_INSERT = 10;
 
+    /*
+     * The location our test weather belongs to. Foreign keys aren't enforced, so tests can insert
+     * weather for this location straight into the database without storing the location first.
+     */
+    static final long TEST_LOCATION_ID = 1;
+
     /**
      * Ensures there is a non empty cursor and validates the cursor's data by checking it against
      * a set of expected values. This method will then close the cursor.
@@ -120,6 +127,7 @@ class TestUtilities {
 
         ContentValues testWeatherValues = new ContentValues();
 
+        testWeatherValues.put(COLUMN_LOC_KEY, TEST_LOCATION_ID);
         testWeatherValues.put(COLUMN_DATE, DATE_NORMALIZED);
         testWeatherValues.put(COLUMN_DEGREES, 1.1);
         testWeatherValues.put(COLUMN_HUMIDITY, 1.2);
@@ -157,6 +165,7 @@ class TestUtilities {
 
             ContentValues weatherValues = new ContentValues();
 
+            weatherValues.put(COLUMN_LOC_KEY, TEST_LOCATION_ID);
             weatherValues.put(COLUMN_DATE, normalizedTestDate);
             weatherValues.put(COLUMN_DEGREES, 1.1);
             weatherValues.put(COLUMN_HUMIDITY, 1.2 + 0.01 * (float) i);
@@ -16,17 +16,22 @@
 package com.example.android.sunshine.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderClient;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.pm.PackageManager;
 import android.content.pm.ProviderInfo;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
+import android.os.Bundle;
 import android.support.test.InstrumentationRegistry;
 import android.support.test.runner.AndroidJUnit4;
 
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -71,6 +76,10 @@ public class TestWeatherProvider {
     /* Context used to access various parts of the system */
     private final Context mContext = InstrumentationRegistry.getTargetContext();
 
+    /* Two location settings we store forecasts for side by side */
+    private static final String TEST_LOCATION_HOME = "10001,USA";
+    private static final String TEST_LOCATION_WORK = "60601,USA";
+
     /**
      * Because we annotate this method with the @Before annotation, this method will be called
      * before every single method with an @Test annotation. We want to start each test clean, so we
@@ -326,6 +335,329 @@ public class TestWeatherProvider {
         cursor.close();
     }
 
+    /**
+     * This test checks that upserting a forecast through {@link WeatherProvider#call} only writes
+     * the days whose values changed. Upserting the exact same forecast twice should not write
+     * anything the second time, and changing a single day should write a single row.
+     */
+    @Test
+    public void testUpsertForecastOnlyWritesChangedDays() {
+
+        ContentValues[] forecast = createForecastWithoutLocation();
+        ContentResolver contentResolver = mContext.getContentResolver();
+
+        Bundle firstWrite = upsertForecastForResult(contentResolver, null, forecast);
+        assertEquals("Every day should be written into an empty table",
+                BULK_INSERT_RECORDS_TO_INSERT,
+                firstWrite.getInt(WeatherContract.EXTRA_ROWS_WRITTEN));
+        assertEquals("Days written into an empty table are inserted, not updated",
+                0,
+                firstWrite.getInt(WeatherContract.EXTRA_ROWS_UPDATED));
+
+        int unchangedWrite = upsertForecast(contentResolver, null, createForecastWithoutLocation());
+        assertEquals("Upserting an identical forecast should not write any rows",
+                0,
+                unchangedWrite);
+
+        ContentValues[] changedForecast = createForecastWithoutLocation();
+        changedForecast[3].put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 99);
+
+        Bundle changedWrite = upsertForecastForResult(contentResolver, null, changedForecast);
+        assertEquals("Only the day that changed should be written",
+                1,
+                changedWrite.getInt(WeatherContract.EXTRA_ROWS_WRITTEN));
+        assertEquals("The day that changed was already stored, so it should be updated",
+                1,
+                changedWrite.getInt(WeatherContract.EXTRA_ROWS_UPDATED));
+
+        Cursor cursor = contentResolver.query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+
+        assertNotNull(cursor);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+
+        cursor.moveToFirst();
+        for (int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, cursor.moveToNext()) {
+            TestUtilities.validateCurrentRecord(
+                    "testUpsertForecastOnlyWritesChangedDays. Error validating WeatherEntry " + i,
+                    cursor,
+                    changedForecast[i]);
+        }
+
+        cursor.close();
+    }
+
+    /**
+     * This test checks that replacing a forecast through {@link WeatherProvider#call} removes the
+     * rows that were stored before, inserts the new forecast and notifies registered observers.
+     */
+    @Test
+    public void testReplaceForecastRemovesStaleRows() {
+
+        /* Store a forecast, then replace it with one that starts a day later */
+        ContentResolver contentResolver = mContext.getContentResolver();
+        upsertForecast(contentResolver, null, createForecastWithoutLocation());
+
+        ContentValues[] laterForecast = createForecastWithoutLocation();
+        for (ContentValues day : laterForecast) {
+            long date = day.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+            day.put(WeatherContract.WeatherEntry.COLUMN_DATE, date + SunshineDateUtils.DAY_IN_MILLIS);
+        }
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        contentResolver.registerContentObserver(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                true,
+                weatherObserver);
+
+        Bundle extras = new Bundle();
+        extras.putParcelableArray(WeatherContract.EXTRA_FORECAST_VALUES, laterForecast);
+        Bundle result = contentResolver.call(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_REPLACE_FORECAST,
+                null,
+                extras);
+
+        weatherObserver.waitForNotificationOrFail();
+        contentResolver.unregisterContentObserver(weatherObserver);
+
+        assertNotNull("The replace forecast method should return a result", result);
+        assertEquals("Every day of the new forecast should be inserted",
+                BULK_INSERT_RECORDS_TO_INSERT,
+                result.getInt(WeatherContract.EXTRA_ROWS_WRITTEN));
+
+        Cursor cursor = contentResolver.query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+
+        assertNotNull(cursor);
+        assertEquals("Stale rows should have been deleted when the forecast was replaced",
+                BULK_INSERT_RECORDS_TO_INSERT,
+                cursor.getCount());
+
+        cursor.moveToFirst();
+        for (int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, cursor.moveToNext()) {
+            TestUtilities.validateCurrentRecord(
+                    "testReplaceForecastRemovesStaleRows. Error validating WeatherEntry " + i,
+                    cursor,
+                    laterForecast[i]);
+        }
+
+        cursor.close();
+    }
+
+    /**
+     * This test stores a different forecast for two locations and checks that each location's
+     * URI only returns its own forecast, and that the URI for a location and a date returns a
+     * single row.
+     */
+    @Test
+    public void testForecastsAreStoredPerLocation() {
+
+        ContentResolver contentResolver = mContext.getContentResolver();
+
+        ContentValues[] homeForecast = createForecastWithoutLocation();
+        ContentValues[] workForecast = createForecastWithoutLocation();
+        for (ContentValues day : workForecast) {
+            day.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, 800);
+        }
+
+        upsertForecast(contentResolver, TEST_LOCATION_HOME, homeForecast);
+        upsertForecast(contentResolver, TEST_LOCATION_WORK, workForecast);
+
+        validateLocationForecast(contentResolver, TEST_LOCATION_HOME, homeForecast);
+        validateLocationForecast(contentResolver, TEST_LOCATION_WORK, workForecast);
+
+        long firstDate = workForecast[0].getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        Cursor dayCursor = contentResolver.query(
+                WeatherContract.WeatherEntry
+                        .buildWeatherUriWithLocationAndDate(TEST_LOCATION_WORK, firstDate),
+                null,
+                null,
+                null,
+                null);
+
+        assertNotNull(dayCursor);
+        assertEquals("A location and a date should identify a single row",
+                1,
+                dayCursor.getCount());
+        TestUtilities.validateThenCloseCursor("testForecastsAreStoredPerLocation",
+                dayCursor,
+                workForecast[0]);
+    }
+
+    /**
+     * Queries the forecast stored for a location and validates it against the expected forecast,
+     * day by day.
+     */
+    private static void validateLocationForecast(ContentResolver contentResolver,
+                                                 String locationSetting,
+                                                 ContentValues[] expectedForecast) {
+        Cursor cursor = contentResolver.query(
+                WeatherContract.WeatherEntry.buildWeatherUriWithLocation(locationSetting),
+                null,
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+
+        assertNotNull(cursor);
+        assertEquals("Each location should only return its own forecast",
+                expectedForecast.length,
+                cursor.getCount());
+
+        cursor.moveToFirst();
+        for (int i = 0; i < expectedForecast.length; i++, cursor.moveToNext()) {
+            TestUtilities.validateCurrentRecord(
+                    "Error validating WeatherEntry " + i + " of " + locationSetting,
+                    cursor,
+                    expectedForecast[i]);
+        }
+
+        cursor.close();
+    }
+
+    /**
+     * The forecast methods store the forecast under the location they are called for, so the
+     * values we pass them don't say which location they belong to.
+     */
+    private static ContentValues[] createForecastWithoutLocation() {
+        ContentValues[] forecast = createBulkInsertTestWeatherValues();
+        for (ContentValues day : forecast) {
+            day.remove(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+        }
+        return forecast;
+    }
+
+    private static int upsertForecast(ContentResolver contentResolver, String locationSetting,
+                                      ContentValues[] forecast) {
+        return upsertForecastForResult(contentResolver, locationSetting, forecast)
+                .getInt(WeatherContract.EXTRA_ROWS_WRITTEN);
+    }
+
+    private static Bundle upsertForecastForResult(ContentResolver contentResolver,
+                                                  String locationSetting,
+                                                  ContentValues[] forecast) {
+        Bundle extras = new Bundle();
+        extras.putParcelableArray(WeatherContract.EXTRA_FORECAST_VALUES, forecast);
+
+        Bundle result = contentResolver.call(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_UPSERT_FORECAST,
+                locationSetting,
+                extras);
+
+        assertNotNull("The upsert forecast method should return a result", result);
+        return result;
+    }
+
+    /**
+     * This test checks that a repeated query is answered from the provider's cache, by deleting
+     * the rows directly from the database between two queries, and that a write made through the
+     * provider invalidates the cache so that the next query sees it.
+     */
+    @Test
+    public void testRepeatedQueryIsServedFromCacheUntilWrite() {
+
+        ContentResolver contentResolver = mContext.getContentResolver();
+
+        ContentValues[] forecast = createForecastWithoutLocation();
+        upsertForecast(contentResolver, TEST_LOCATION_HOME, forecast);
+        validateLocationForecast(contentResolver, TEST_LOCATION_HOME, forecast);
+
+        WeatherDbHelper helper = new WeatherDbHelper(mContext);
+        SQLiteDatabase database = helper.getWritableDatabase();
+        database.delete(WeatherContract.WeatherEntry.TABLE_NAME, null, null);
+        database.close();
+
+        /* The provider didn't see that delete, so this query must come from memory */
+        validateLocationForecast(contentResolver, TEST_LOCATION_HOME, forecast);
+
+        ContentValues[] laterForecast = createForecastWithoutLocation();
+        for (ContentValues day : laterForecast) {
+            day.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, 800);
+        }
+        upsertForecast(contentResolver, TEST_LOCATION_HOME, laterForecast);
+
+        validateLocationForecast(contentResolver, TEST_LOCATION_HOME, laterForecast);
+    }
+
+    /**
+     * This test stores more expired weather than fits in a single prune batch, along with the
+     * days inside the retention horizon, and checks that pruning deletes exactly the expired days,
+     * reports how many rows it deleted, and empties the freelist the deletes filled.
+     */
+    @Test
+    public void testPruneForecastDeletesExpiredRows() {
+
+        ContentResolver contentResolver = mContext.getContentResolver();
+
+        int retentionDays = 7;
+        int expiredDays = 1200;
+        int keptDays = retentionDays + 7;
+
+        long today = SunshineDateUtils.normalizeDate(System.currentTimeMillis());
+        long firstDate = today - (retentionDays + expiredDays) * SunshineDateUtils.DAY_IN_MILLIS;
+
+        ContentValues[] forecast = new ContentValues[expiredDays + keptDays];
+        ContentValues template = createForecastWithoutLocation()[0];
+        for (int i = 0; i < forecast.length; i++) {
+            forecast[i] = new ContentValues(template);
+            forecast[i].put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                    firstDate + i * SunshineDateUtils.DAY_IN_MILLIS);
+        }
+        upsertForecast(contentResolver, TEST_LOCATION_HOME, forecast);
+
+        Bundle result = contentResolver.call(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_PRUNE_FORECAST,
+                Integer.toString(retentionDays),
+                null);
+
+        assertNotNull("The prune forecast method should return a result", result);
+        assertEquals("Every day before the retention horizon should have been deleted",
+                expiredDays,
+                result.getInt(WeatherContract.EXTRA_ROWS_DELETED));
+        /*
+         * Over a thousand deleted rows free a good number of pages, and every one of them should
+         * have been given back to the file system rather than left on the freelist.
+         */
+        assertTrue("Pruning should have given back the pages of the deleted rows",
+                result.getLong(WeatherContract.EXTRA_PAGES_RECLAIMED) > 0);
+
+        WeatherDbHelper helper = new WeatherDbHelper(mContext);
+        SQLiteDatabase database = helper.getReadableDatabase();
+        long freePagesAfterPrune =
+                DatabaseUtils.longForQuery(database, "PRAGMA freelist_count", null);
+        helper.close();
+        assertEquals("No freed pages should be left on the freelist after pruning",
+                0,
+                freePagesAfterPrune);
+
+        Cursor cursor = contentResolver.query(
+                WeatherContract.WeatherEntry.buildWeatherUriWithLocation(TEST_LOCATION_HOME),
+                new String[]{WeatherContract.WeatherEntry.COLUMN_DATE},
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+
+        assertNotNull(cursor);
+        assertEquals("Every day inside the retention horizon should have been kept",
+                keptDays,
+                cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals("The oldest day kept should be the retention horizon",
+                today - retentionDays * SunshineDateUtils.DAY_IN_MILLIS,
+                cursor.getLong(0));
+        cursor.close();
+    }
+
     /**
      * This test deletes all records from the weather table using the ContentProvider. It also
      * verifies that registered ContentObservers receive onChange callbacks when data is deleted.
@@ -445,5 +777,23 @@ public class TestWeatherProvider {
 
         /* Always close the database when you're through with it */
         database.close();
+
+        /* The provider can't know we wrote behind its back, so its cached results must go too */
+        invalidateForecastCache(mContext);
+    }
+
+    /**
+     * Drops the query results cached by the WeatherProvider running in this process. Tests run in
+     * the same process as the app, so we can reach the provider instance itself.
+     */
+    private static void invalidateForecastCache(Context context) {
+        ContentProviderClient client = context.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        assertNotNull(client);
+        try {
+            ((WeatherProvider) client.getLocalContentProvider()).invalidateForecastCache();
+        } finally {
+            client.release();
+        }
     }
 }
\ No newline at end of file
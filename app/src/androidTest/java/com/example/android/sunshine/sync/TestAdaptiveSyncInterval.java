@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.utilities.SunshineWeatherUtils;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.example.android.sunshine.sync.SunshineSyncUtils.getNextSyncIntervalSeconds;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests how the interval between periodic syncs adapts to how much the forecast changes.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestAdaptiveSyncInterval {
+
+    private static final int MIN = (int) TimeUnit.HOURS.toSeconds(1);
+    private static final int MAX = (int) TimeUnit.HOURS.toSeconds(12);
+    private static final int THREE_HOURS = (int) TimeUnit.HOURS.toSeconds(3);
+
+    @Test
+    public void testUnchangedForecastLengthensIntervalUpToMax() {
+        int interval = THREE_HOURS;
+
+        interval = getNextSyncIntervalSeconds(interval, 0, 14, false, MIN, MAX);
+        assertEquals((int) TimeUnit.MINUTES.toSeconds(270), interval);
+
+        for (int sync = 0; sync < 10; sync++) {
+            interval = getNextSyncIntervalSeconds(interval, 0, 14, false, MIN, MAX);
+        }
+        assertEquals(MAX, interval);
+    }
+
+    @Test
+    public void testLargeChangeShortensIntervalDownToMin() {
+        int interval = THREE_HOURS;
+
+        interval = getNextSyncIntervalSeconds(interval, 7, 14, false, MIN, MAX);
+        assertEquals((int) TimeUnit.MINUTES.toSeconds(90), interval);
+
+        interval = getNextSyncIntervalSeconds(interval, 14, 14, false, MIN, MAX);
+        assertEquals(MIN, interval);
+    }
+
+    @Test
+    public void testSmallChangeKeepsInterval() {
+        assertEquals(THREE_HOURS, getNextSyncIntervalSeconds(THREE_HOURS, 2, 14, false, MIN, MAX));
+    }
+
+    @Test
+    public void testSevereWeatherSyncsAsOftenAsAllowed() {
+        assertEquals(MIN, getNextSyncIntervalSeconds(MAX, 0, 14, true, MIN, MAX));
+    }
+
+    @Test
+    public void testSevereWeatherIds() {
+        /* Thunderstorm, extreme rain, tornado, hurricane */
+        assertTrue(SunshineWeatherUtils.isSevereWeather(211));
+        assertTrue(SunshineWeatherUtils.isSevereWeather(504));
+        assertTrue(SunshineWeatherUtils.isSevereWeather(900));
+        assertTrue(SunshineWeatherUtils.isSevereWeather(962));
+
+        /* Drizzle, light rain, clear sky, broken clouds */
+        assertFalse(SunshineWeatherUtils.isSevereWeather(300));
+        assertFalse(SunshineWeatherUtils.isSevereWeather(500));
+        assertFalse(SunshineWeatherUtils.isSevereWeather(800));
+        assertFalse(SunshineWeatherUtils.isSevereWeather(803));
+    }
+}
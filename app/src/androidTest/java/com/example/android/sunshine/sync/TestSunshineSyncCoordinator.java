@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.android.sunshine.sync.SunshineSyncTask.SYNC_FAILED_TRANSIENT;
+import static com.example.android.sunshine.sync.SunshineSyncTask.SYNC_SUCCEEDED;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests that SunshineSyncCoordinator merges sync requests, using a Syncer that records the syncs
+ * it was asked to run instead of going to the network.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestSunshineSyncCoordinator {
+
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    /**
+     * Records every sync it runs. A sync blocks until {@link #mRelease} is counted down, so tests
+     * can make requests while it's running.
+     */
+    private static class RecordingSyncer implements SunshineSyncCoordinator.Syncer {
+        final List<Boolean> syncs = Collections.synchronizedList(new ArrayList<Boolean>());
+        final CountDownLatch mStarted = new CountDownLatch(1);
+        final CountDownLatch mRelease;
+
+        RecordingSyncer(boolean block) {
+            mRelease = new CountDownLatch(block ? 1 : 0);
+        }
+
+        @Override
+        public int sync(Context context, boolean replaceForecast) {
+            syncs.add(replaceForecast);
+            mStarted.countDown();
+            try {
+                mRelease.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return SYNC_SUCCEEDED;
+        }
+    }
+
+    @Test
+    public void testWaitingRequestsAreMergedIntoOneSync() throws Exception {
+        RecordingSyncer syncer = new RecordingSyncer(false);
+        SunshineSyncCoordinator coordinator = new SunshineSyncCoordinator(syncer);
+
+        SunshineSyncCoordinator.SyncRequest first = coordinator.enqueue("94043,USA", false);
+        SunshineSyncCoordinator.SyncRequest second = coordinator.enqueue("94043,USA", true);
+        SunshineSyncCoordinator.SyncRequest third = coordinator.enqueue("94043,USA", false);
+
+        assertSame(first, second);
+        assertSame(first, third);
+        assertFalse(first.isDone());
+
+        coordinator.runPending(mContext);
+
+        assertEquals("Three requests should be answered by a single sync", 1, syncer.syncs.size());
+        assertTrue("The sync should replace the forecast if any request asked it to",
+                syncer.syncs.get(0));
+        assertEquals(SYNC_SUCCEEDED, first.await());
+
+        /* Nothing is left waiting, so running again shouldn't sync */
+        coordinator.runPending(mContext);
+        assertEquals(1, syncer.syncs.size());
+    }
+
+    @Test
+    public void testRequestDuringSyncOfSameLocationJoinsIt() throws Exception {
+        final RecordingSyncer syncer = new RecordingSyncer(true);
+        final SunshineSyncCoordinator coordinator = new SunshineSyncCoordinator(syncer);
+
+        SunshineSyncCoordinator.SyncRequest running = coordinator.enqueue("94043,USA", false);
+        Thread worker = startRunPending(coordinator);
+        assertTrue(syncer.mStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        SunshineSyncCoordinator.SyncRequest joined = coordinator.enqueue("94043,USA", false);
+        assertSame("A request the running sync answers should wait for it", running, joined);
+
+        /* A worker started for the joined request has nothing to do */
+        assertEquals(SYNC_SUCCEEDED, coordinator.runPending(mContext));
+
+        syncer.mRelease.countDown();
+        worker.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+
+        assertEquals(SYNC_SUCCEEDED, joined.await());
+        assertEquals(1, syncer.syncs.size());
+    }
+
+    @Test
+    public void testRequestsDuringSyncOfAnotherLocationRunOnceAfterIt() throws Exception {
+        final RecordingSyncer syncer = new RecordingSyncer(true);
+        final SunshineSyncCoordinator coordinator = new SunshineSyncCoordinator(syncer);
+
+        coordinator.enqueue("94043,USA", false);
+        Thread worker = startRunPending(coordinator);
+        assertTrue(syncer.mStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        /* The user edits their location a few times while the first sync is running */
+        SunshineSyncCoordinator.SyncRequest first = coordinator.enqueue("London,UK", false);
+        SunshineSyncCoordinator.SyncRequest second = coordinator.enqueue("Paris,FR", false);
+        SunshineSyncCoordinator.SyncRequest third = coordinator.enqueue("Berlin,DE", false);
+        assertSame(first, second);
+        assertSame(first, third);
+
+        syncer.mRelease.countDown();
+        worker.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+
+        /* The worker that ran the first sync runs the merged request before it returns */
+        assertTrue(first.isDone());
+        assertEquals(2, syncer.syncs.size());
+    }
+
+    @Test
+    public void testReplaceRequestDuringUpdateIsNotAnsweredByIt() throws Exception {
+        final RecordingSyncer syncer = new RecordingSyncer(true);
+        final SunshineSyncCoordinator coordinator = new SunshineSyncCoordinator(syncer);
+
+        SunshineSyncCoordinator.SyncRequest update = coordinator.enqueue("94043,USA", false);
+        Thread worker = startRunPending(coordinator);
+        assertTrue(syncer.mStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        SunshineSyncCoordinator.SyncRequest replace = coordinator.enqueue("94043,USA", true);
+        assertFalse(update == replace);
+
+        syncer.mRelease.countDown();
+        worker.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+
+        assertEquals(2, syncer.syncs.size());
+        assertFalse(syncer.syncs.get(0));
+        assertTrue(syncer.syncs.get(1));
+    }
+
+    @Test
+    public void testSyncThatThrowsFinishesItsRequestAndLetsLaterSyncsRun() throws Exception {
+        final List<Boolean> syncs = Collections.synchronizedList(new ArrayList<Boolean>());
+        final SunshineSyncCoordinator coordinator =
+                new SunshineSyncCoordinator(new SunshineSyncCoordinator.Syncer() {
+                    @Override
+                    public int sync(Context context, boolean replaceForecast) {
+                        syncs.add(replaceForecast);
+                        if (syncs.size() == 1) {
+                            throw new IllegalStateException("The first sync fails");
+                        }
+                        return SYNC_SUCCEEDED;
+                    }
+                });
+
+        SunshineSyncCoordinator.SyncRequest failed = coordinator.enqueue("94043,USA", false);
+        assertEquals(SYNC_FAILED_TRANSIENT, coordinator.runPending(mContext));
+        assertTrue("A sync that throws should still finish its request", failed.isDone());
+        assertEquals(SYNC_FAILED_TRANSIENT, failed.await());
+
+        SunshineSyncCoordinator.SyncRequest next = coordinator.enqueue("94043,USA", false);
+        assertFalse("The next request should not join the failed sync", failed == next);
+
+        coordinator.runPending(mContext);
+        assertTrue("The next request should have run", next.isDone());
+        assertEquals(SYNC_SUCCEEDED, next.await());
+        assertEquals(2, syncs.size());
+    }
+
+    private Thread startRunPending(final SunshineSyncCoordinator coordinator) {
+        Thread worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                coordinator.runPending(mContext);
+            }
+        });
+        worker.start();
+        return worker;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests that SyncMetrics keeps the most recent syncs, and prints them all.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestSyncMetrics {
+
+    @Test
+    public void testOldestRecordsAreDropped() {
+        SyncMetrics metrics = new SyncMetrics(3);
+
+        SyncMetrics.Record[] records = new SyncMetrics.Record[5];
+        for (int i = 0; i < records.length; i++) {
+            records[i] = metrics.begin(false);
+            metrics.finish(records[i], SunshineSyncTask.SYNC_SUCCEEDED);
+        }
+
+        assertEquals(3, metrics.size());
+        assertSame(records[2], metrics.get(0));
+        assertSame(records[3], metrics.get(1));
+        assertSame(records[4], metrics.get(2));
+    }
+
+    @Test
+    public void testStagesAccumulateAndWearablePushGoesToLatestSync() throws Exception {
+        SyncMetrics metrics = new SyncMetrics(SyncMetrics.CAPACITY);
+
+        SyncMetrics.Record record = metrics.begin(true);
+        Thread.sleep(5);
+        record.mark(SyncMetrics.STAGE_WRITE);
+        record.setRowsWritten(14);
+        metrics.finish(record, SunshineSyncTask.SYNC_SUCCEEDED);
+
+        metrics.recordWearablePush(1000);
+
+        /* Later pushes, such as after a rotation, weren't caused by the sync */
+        metrics.recordWearablePush(5000);
+
+        assertTrue(record.getStageNanos(SyncMetrics.STAGE_WRITE) > 0);
+        assertEquals(0, record.getStageNanos(SyncMetrics.STAGE_PRUNE));
+        assertEquals(1000, record.getStageNanos(SyncMetrics.STAGE_WEARABLE));
+
+        StringWriter dump = new StringWriter();
+        metrics.dump(new PrintWriter(dump));
+        String output = dump.toString();
+
+        assertTrue(output, output.contains(" replace result=0 "));
+        assertTrue(output, output.contains(" written=14 "));
+        assertTrue(output, output.contains(" wearable=0.0 "));
+    }
+
+    @Test
+    public void testWearablePushIsNotRecordedAgainstSyncThatWroteNothing() {
+        SyncMetrics metrics = new SyncMetrics(SyncMetrics.CAPACITY);
+
+        SyncMetrics.Record record = metrics.begin(false);
+        metrics.finish(record, SunshineSyncTask.SYNC_SUCCEEDED);
+        metrics.recordWearablePush(1000);
+
+        assertEquals(0, record.getStageNanos(SyncMetrics.STAGE_WEARABLE));
+    }
+}
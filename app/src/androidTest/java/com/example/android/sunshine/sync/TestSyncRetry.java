@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.util.MalformedJsonException;
+
+import com.example.android.sunshine.utilities.HttpStatusException;
+
+import org.json.JSONException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.util.Random;
+
+import static com.example.android.sunshine.sync.SunshineSyncTask.SYNC_FAILED_PERMANENT;
+import static com.example.android.sunshine.sync.SunshineSyncTask.SYNC_FAILED_TRANSIENT;
+import static com.example.android.sunshine.sync.SunshineSyncTask.classifyFailure;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests how failed syncs are classified, and the backoff they are retried with.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestSyncRetry {
+
+    @Test
+    public void testNetworkFailuresAreRetried() {
+        assertEquals(SYNC_FAILED_TRANSIENT, classifyFailure(new SocketTimeoutException()));
+        assertEquals(SYNC_FAILED_TRANSIENT, classifyFailure(new UnknownHostException()));
+    }
+
+    @Test
+    public void testServerErrorsAreRetriedButClientErrorsAreNot() throws Exception {
+        URL url = new URL("https://andfun-weather.udacity.com/staticweather");
+
+        assertEquals(SYNC_FAILED_TRANSIENT, classifyFailure(new HttpStatusException(url, 500)));
+        assertEquals(SYNC_FAILED_TRANSIENT, classifyFailure(new HttpStatusException(url, 503)));
+        assertEquals(SYNC_FAILED_TRANSIENT, classifyFailure(new HttpStatusException(url, 429)));
+        assertEquals(SYNC_FAILED_PERMANENT, classifyFailure(new HttpStatusException(url, 404)));
+    }
+
+    /**
+     * MalformedJsonException is an IOException, but broken JSON isn't a network failure.
+     */
+    @Test
+    public void testParseFailuresAreNotRetried() {
+        assertEquals(SYNC_FAILED_PERMANENT, classifyFailure(new JSONException("No value for list")));
+        assertEquals(SYNC_FAILED_PERMANENT, classifyFailure(new MalformedJsonException("{")));
+        assertEquals(SYNC_FAILED_PERMANENT, classifyFailure(new IllegalStateException()));
+    }
+
+    @Test
+    public void testInitialBackoffIsJitteredWithinBounds() {
+        Random random = new Random(0);
+        int smallest = Integer.MAX_VALUE;
+        int largest = Integer.MIN_VALUE;
+
+        for (int i = 0; i < 1000; i++) {
+            int backoff = SunshineSyncUtils.getInitialBackoffSeconds(random);
+            smallest = Math.min(smallest, backoff);
+            largest = Math.max(largest, backoff);
+        }
+
+        assertTrue("FirebaseJobDispatcher rejects backoffs below 30 seconds", smallest >= 30);
+        assertTrue("Backoff should stay within its jitter", largest <= 60);
+        assertTrue("Backoff should actually be jittered", largest > smallest);
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * An {@link HttpTransport} that answers requests with responses queued up by the test, without
+ * any sockets. Install it with NetworkUtils#setTransport.
+ */
+public class FakeHttpTransport implements HttpTransport {
+
+    /**
+     * A request sent through this transport. Header names are stored in lower case.
+     */
+    public static class Request {
+        public final URL url;
+        public final Map<String, String> headers = new HashMap<>();
+
+        Request(URL url, Map<String, String> requestHeaders) {
+            this.url = url;
+            for (Map.Entry<String, String> header : requestHeaders.entrySet()) {
+                headers.put(header.getKey().toLowerCase(Locale.US), header.getValue());
+            }
+        }
+
+        public String getHeader(String name) {
+            return headers.get(name.toLowerCase(Locale.US));
+        }
+    }
+
+    /**
+     * A response for this transport to answer a request with.
+     */
+    public static class FakeResponse implements Response {
+        private final int mStatusCode;
+        private final Map<String, String> mHeaders = new HashMap<>();
+        private final InputStream mBody;
+        private boolean mClosed;
+
+        public FakeResponse(int statusCode, byte[] body) {
+            mStatusCode = statusCode;
+            mBody = new ByteArrayInputStream(body);
+        }
+
+        public FakeResponse addHeader(String name, String value) {
+            mHeaders.put(name.toLowerCase(Locale.US), value);
+            return this;
+        }
+
+        public boolean isClosed() {
+            return mClosed;
+        }
+
+        @Override
+        public int getStatusCode() {
+            return mStatusCode;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return mHeaders.get(name.toLowerCase(Locale.US));
+        }
+
+        @Override
+        public InputStream getBody() {
+            return mBody;
+        }
+
+        @Override
+        public void close() {
+            mClosed = true;
+        }
+    }
+
+    private final LinkedList<Object> mQueue = new LinkedList<>();
+    private final List<Request> mRequests = new ArrayList<>();
+
+    /**
+     * Queues a response for the next request that doesn't have one yet.
+     */
+    public synchronized FakeHttpTransport enqueue(FakeResponse response) {
+        mQueue.add(response);
+        return this;
+    }
+
+    /**
+     * Queues a failure for the next request that doesn't have a response yet, as if the server
+     * couldn't be reached or stopped answering.
+     */
+    public synchronized FakeHttpTransport enqueueFailure(IOException failure) {
+        mQueue.add(failure);
+        return this;
+    }
+
+    public synchronized List<Request> getRequests() {
+        return new ArrayList<>(mRequests);
+    }
+
+    @Override
+    public synchronized Response execute(URL url, Map<String, String> requestHeaders)
+            throws IOException {
+        mRequests.add(new Request(url, requestHeaders));
+
+        if (mQueue.isEmpty()) {
+            throw new IllegalStateException("No response queued for " + url);
+        }
+        Object next = mQueue.removeFirst();
+        if (next instanceof IOException) {
+            throw (IOException) next;
+        }
+        return (Response) next;
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+
+/**
+ * Compares {@link OpenWeatherJsonUtils#getWeatherContentValuesFromJsonStream}, which reads the
+ * response with a JsonReader, against {@link OpenWeatherJsonUtils#getWeatherContentValuesFromJson},
+ * which builds a JSONObject of the whole response first. Each benchmark first checks that both
+ * parsers return the same forecast, then writes the time and the bytes allocated by each of them
+ * to logcat under the tag of this class.
+ * <p>
+ * The payloads are generated in the format served by the static weather server. The sync only
+ * ever asks for 14 days, but the 3-hourly forecast for 16 days (128 entries) shows how each
+ * parser scales with the size of the response.
+ * <p>
+ * How much is allocated depends on the version of ART, the JIT and the garbage collector, so the
+ * numbers are only logged, never asserted on.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestJsonParserBenchmark {
+
+    private static final String TAG = TestJsonParserBenchmark.class.getSimpleName();
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int RUNS = 200;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @Test
+    public void benchmarkFourteenDayForecast() throws Exception {
+        benchmark(14);
+    }
+
+    @Test
+    public void benchmarkSixteenDayThreeHourlyForecast() throws Exception {
+        benchmark(16 * 8);
+    }
+
+    @Test
+    public void testErrorCodeReturnsNull() throws Exception {
+        String json = "{\"list\":[],\"cod\":\"404\",\"message\":\"city not found\"}";
+        assertNull(OpenWeatherJsonUtils.getWeatherContentValuesFromJson(mContext, json));
+        assertNull(OpenWeatherJsonUtils.getWeatherContentValuesFromJsonStream(mContext,
+                new ByteArrayInputStream(json.getBytes(UTF_8))));
+    }
+
+    /**
+     * Parses a forecast of the given size RUNS times with each parser.
+     *
+     * @param entryCount Number of entries in the "list" array of the forecast
+     */
+    private void benchmark(int entryCount) throws Exception {
+        String json = createForecastJson(entryCount);
+        byte[] jsonBytes = json.getBytes(UTF_8);
+
+        ContentValues[] domValues =
+                OpenWeatherJsonUtils.getWeatherContentValuesFromJson(mContext, json);
+        ContentValues[] streamValues = OpenWeatherJsonUtils.getWeatherContentValuesFromJsonStream(
+                mContext, new ByteArrayInputStream(jsonBytes));
+
+        assertNotNull(domValues);
+        assertNotNull(streamValues);
+        assertEquals(entryCount, streamValues.length);
+        for (int i = 0; i < entryCount; i++) {
+            assertEquals("Both parsers should return the same values for day " + i,
+                    domValues[i],
+                    streamValues[i]);
+        }
+
+        /*
+         * The JSONObject parser is timed from the bytes of the response, as it has to turn them
+         * into a String before it can start, which the streaming parser doesn't have to do.
+         */
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocSize();
+            long start = System.nanoTime();
+            for (int run = 0; run < RUNS; run++) {
+                OpenWeatherJsonUtils.getWeatherContentValuesFromJson(mContext,
+                        new String(jsonBytes, UTF_8));
+            }
+            long domNanos = System.nanoTime() - start;
+            long domBytes = Debug.getThreadAllocSize();
+
+            Debug.resetThreadAllocSize();
+            start = System.nanoTime();
+            for (int run = 0; run < RUNS; run++) {
+                OpenWeatherJsonUtils.getWeatherContentValuesFromJsonStream(mContext,
+                        new ByteArrayInputStream(jsonBytes));
+            }
+            long streamNanos = System.nanoTime() - start;
+            long streamBytes = Debug.getThreadAllocSize();
+
+            Log.i(TAG, entryCount + " entries, " + jsonBytes.length + " bytes: "
+                    + "JSONObject " + domNanos / RUNS / 1000 + "us " + domBytes / RUNS + "B, "
+                    + "JsonReader " + streamNanos / RUNS / 1000 + "us " + streamBytes / RUNS + "B "
+                    + "per parse");
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    /**
+     * Builds a forecast in the format of the static weather server, with every field it sends,
+     * including the ones we don't store.
+     */
+    private static String createForecastJson(int entryCount) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"city\":{\"id\":5375480,\"name\":\"Mountain View\",")
+                .append("\"coord\":{\"lon\":-122.0838,\"lat\":37.3861},")
+                .append("\"country\":\"US\",\"population\":0},")
+                .append("\"cod\":\"200\",\"message\":0.0123,\"cnt\":")
+                .append(entryCount)
+                .append(",\"list\":[");
+
+        for (int i = 0; i < entryCount; i++) {
+            if (i > 0) json.append(',');
+            json.append(String.format(Locale.US,
+                    "{\"dt\":%d,\"temp\":{\"day\":%.2f,\"min\":%.2f,\"max\":%.2f,"
+                            + "\"night\":%.2f,\"eve\":%.2f,\"morn\":%.2f},"
+                            + "\"pressure\":%.2f,\"humidity\":%d,"
+                            + "\"weather\":[{\"id\":%d,\"main\":\"Clear\","
+                            + "\"description\":\"sky is clear\",\"icon\":\"01d\"}],"
+                            + "\"speed\":%.2f,\"deg\":%d,\"clouds\":%d}",
+                    1472214172L + i * 10800L,
+                    18.5 + i % 7, 12.25 + i % 5, 24.75 + i % 9,
+                    14.0 + i % 3, 20.0 + i % 4, 13.0 + i % 6,
+                    1013.25 - i % 11, 40 + i % 50,
+                    800 + i % 4,
+                    1.5 + i % 8, (i * 37) % 360, i % 100));
+        }
+
+        json.append("]}");
+        return json.toString();
+    }
+}
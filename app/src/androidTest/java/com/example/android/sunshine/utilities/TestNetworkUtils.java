@@ -0,0 +1,364 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.utils.StubHttpServer;
+
+import org.json.JSONException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.zip.GZIPOutputStream;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+/**
+ * Tests {@link NetworkUtils} against a {@link StubHttpServer} running on the device, which
+ * stands in for the weather server.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestNetworkUtils {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String FORECAST_PATH = "/staticweather";
+    private static final String FORECAST_BODY = "{\"cod\":\"200\",\"list\":[]}";
+    private static final String FORECAST_ETAG = "\"v1\"";
+    private static final String FORECAST_LAST_MODIFIED = "Mon, 29 Aug 2016 12:00:00 GMT";
+
+    /* Serves a 14 day forecast in the format of the static weather server, gzipped if asked to */
+    private static final String GZIP_FORECAST_PATH = "/staticweather/gzip";
+    private static final int GZIP_FORECAST_DAYS = 14;
+
+    /* Never answers, so that requests to it time out */
+    private static final String SLOW_PATH = "/slow";
+    private static final long SLOW_RESPONSE_DELAY_MILLIS = 5000;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private StubHttpServer mServer;
+
+    /* Counts how many times a response body was handed to mReadBody */
+    private int mBodiesRead;
+
+    private final NetworkUtils.ResponseHandler<String> mReadBody =
+            new NetworkUtils.ResponseHandler<String>() {
+                @Override
+                public String handleResponse(InputStream in) throws IOException {
+                    mBodiesRead++;
+                    byte[] buffer = new byte[1024];
+                    StringBuilder body = new StringBuilder();
+                    int bytesRead;
+                    while ((bytesRead = in.read(buffer)) != -1) {
+                        body.append(new String(buffer, 0, bytesRead, UTF_8));
+                    }
+                    return body.toString();
+                }
+            };
+
+    /**
+     * Serves FORECAST_BODY with an ETag and a Last-Modified date, or a bodiless 304 if the
+     * request's If-None-Match matches that ETag.
+     */
+    @Before
+    public void setUp() throws IOException {
+        NetworkUtils.clearResponseValidators(mContext);
+
+        mServer = new StubHttpServer(new StubHttpServer.Handler() {
+            @Override
+            public StubHttpServer.Response handle(StubHttpServer.Request request)
+                    throws IOException {
+                if (request.requestLine.contains(GZIP_FORECAST_PATH)) {
+                    return createForecastResponse(request);
+                }
+                if (request.requestLine.contains(SLOW_PATH)) {
+                    try {
+                        Thread.sleep(SLOW_RESPONSE_DELAY_MILLIS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                if (FORECAST_ETAG.equals(request.getHeader("If-None-Match"))) {
+                    return new StubHttpServer.Response(
+                            HttpURLConnection.HTTP_NOT_MODIFIED, "Not Modified", new byte[0]);
+                }
+                return new StubHttpServer.Response(
+                        HttpURLConnection.HTTP_OK, "OK", FORECAST_BODY.getBytes(UTF_8))
+                        .addHeader("Content-Type", "application/json")
+                        .addHeader("ETag", FORECAST_ETAG)
+                        .addHeader("Last-Modified", FORECAST_LAST_MODIFIED);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        NetworkUtils.setTransport(null);
+        mServer.close();
+        NetworkUtils.clearResponseValidators(mContext);
+    }
+
+    /**
+     * Serves a forecast, compressing it with gzip if the request accepts it.
+     */
+    private static StubHttpServer.Response createForecastResponse(StubHttpServer.Request request)
+            throws IOException {
+        byte[] json = createForecastJson(GZIP_FORECAST_DAYS).getBytes(UTF_8);
+
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        if (acceptEncoding == null || !acceptEncoding.contains("gzip")) {
+            return new StubHttpServer.Response(HttpURLConnection.HTTP_OK, "OK", json);
+        }
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+        gzip.write(json);
+        gzip.close();
+
+        return new StubHttpServer.Response(HttpURLConnection.HTTP_OK, "OK",
+                compressed.toByteArray())
+                .addHeader("Content-Encoding", "gzip");
+    }
+
+    private static String createForecastJson(int days) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"city\":{\"id\":5375480,\"name\":\"Mountain View\",")
+                .append("\"coord\":{\"lon\":-122.0838,\"lat\":37.3861},")
+                .append("\"country\":\"US\",\"population\":0},")
+                .append("\"cod\":\"200\",\"message\":0.0123,\"cnt\":").append(days)
+                .append(",\"list\":[");
+        for (int i = 0; i < days; i++) {
+            if (i > 0) json.append(',');
+            json.append("{\"dt\":").append(1472214172L + i * 86400L)
+                    .append(",\"temp\":{\"day\":20.5,\"min\":").append(10 + i)
+                    .append(",\"max\":").append(20 + i)
+                    .append(",\"night\":12.5,\"eve\":18.25,\"morn\":11.75},")
+                    .append("\"pressure\":1013.25,\"humidity\":").append(60 + i)
+                    .append(",\"weather\":[{\"id\":800,\"main\":\"Clear\",")
+                    .append("\"description\":\"sky is clear\",\"icon\":\"01d\"}],")
+                    .append("\"speed\":1.5,\"deg\":").append(i * 25)
+                    .append(",\"clouds\":0}");
+        }
+        return json.append("]}").toString();
+    }
+
+    /**
+     * Our requests should ask for gzip, and a gzipped forecast should be decompressed before it
+     * is parsed. The byte counters should show that fewer bytes came over the network than the
+     * forecast holds.
+     */
+    @Test
+    public void testGzipResponseIsDecompressedAndCounted() throws Exception {
+        long receivedBefore = NetworkUtils.getBytesReceived();
+        long decompressedBefore = NetworkUtils.getBytesDecompressed();
+
+        ContentValues[] forecast = NetworkUtils.fetchFromHttpUrl(
+                mServer.getUrl(GZIP_FORECAST_PATH),
+                new NetworkUtils.ResponseHandler<ContentValues[]>() {
+                    @Override
+                    public ContentValues[] handleResponse(InputStream in)
+                            throws IOException, JSONException {
+                        return OpenWeatherJsonUtils
+                                .getWeatherContentValuesFromJsonStream(mContext, in);
+                    }
+                });
+
+        assertEquals("gzip", mServer.getRequests().get(0).getHeader("Accept-Encoding"));
+        assertNotNull(forecast);
+        assertEquals(GZIP_FORECAST_DAYS, forecast.length);
+
+        long received = NetworkUtils.getBytesReceived() - receivedBefore;
+        long decompressed = NetworkUtils.getBytesDecompressed() - decompressedBefore;
+        assertEquals("Every byte of the forecast should have been read",
+                createForecastJson(GZIP_FORECAST_DAYS).getBytes(UTF_8).length,
+                decompressed);
+        assertTrue("The compressed forecast should be smaller, but " + received
+                        + " bytes were received for " + decompressed + " bytes of forecast",
+                received > 0 && received < decompressed);
+    }
+
+    /**
+     * A response that isn't compressed should count the same towards both counters.
+     */
+    @Test
+    public void testUncompressedResponseIsCountedOnce() throws Exception {
+        long receivedBefore = NetworkUtils.getBytesReceived();
+        long decompressedBefore = NetworkUtils.getBytesDecompressed();
+
+        NetworkUtils.fetchFromHttpUrl(mServer.getUrl(FORECAST_PATH), mReadBody);
+
+        long bodyLength = FORECAST_BODY.getBytes(UTF_8).length;
+        assertEquals(bodyLength, NetworkUtils.getBytesReceived() - receivedBefore);
+        assertEquals(bodyLength, NetworkUtils.getBytesDecompressed() - decompressedBefore);
+    }
+
+    /**
+     * A server that accepts the connection but never answers should make the request fail once
+     * the read timeout has passed, rather than hang.
+     */
+    @Test
+    public void testUnansweredRequestTimesOut() throws Exception {
+        HttpTransport transport = new UrlConnectionTransport(1000, 500);
+
+        long start = System.currentTimeMillis();
+        try {
+            transport.execute(mServer.getUrl(SLOW_PATH), new HashMap<String, String>());
+            fail("The request should have timed out");
+        } catch (SocketTimeoutException e) {
+            /* Expected */
+        }
+        assertTrue("The request should time out before the server answers",
+                System.currentTimeMillis() - start < SLOW_RESPONSE_DELAY_MILLIS);
+    }
+
+    /**
+     * The conditional fetch should work the same on any transport. This runs it on the fake
+     * transport, which never opens a socket, and checks that every response is closed so that
+     * its connection can be reused.
+     */
+    @Test
+    public void testFakeTransportAnswersConditionalFetch() throws Exception {
+        FakeHttpTransport.FakeResponse modified = new FakeHttpTransport.FakeResponse(
+                HttpURLConnection.HTTP_OK, FORECAST_BODY.getBytes(UTF_8))
+                .addHeader("ETag", FORECAST_ETAG);
+        FakeHttpTransport.FakeResponse notModified = new FakeHttpTransport.FakeResponse(
+                HttpURLConnection.HTTP_NOT_MODIFIED, new byte[0]);
+
+        FakeHttpTransport transport = new FakeHttpTransport()
+                .enqueue(modified)
+                .enqueue(notModified);
+        NetworkUtils.setTransport(transport);
+
+        URL url = new URL("https://andfun-weather.udacity.com/staticweather");
+        assertEquals(FORECAST_BODY,
+                NetworkUtils.fetchFromHttpUrlIfModified(mContext, url, mReadBody));
+        try {
+            NetworkUtils.fetchFromHttpUrlIfModified(mContext, url, mReadBody);
+            fail("The second fetch should have been told the response wasn't modified");
+        } catch (NotModifiedException e) {
+            /* Expected */
+        }
+
+        assertEquals(FORECAST_ETAG, transport.getRequests().get(1).getHeader("If-None-Match"));
+        assertTrue(modified.isClosed());
+        assertTrue(notModified.isClosed());
+    }
+
+    /**
+     * An error status from the server should fail the fetch without the handler being called.
+     */
+    @Test
+    public void testServerErrorFails() throws Exception {
+        FakeHttpTransport.FakeResponse serverError = new FakeHttpTransport.FakeResponse(
+                HttpURLConnection.HTTP_UNAVAILABLE, new byte[0]);
+        NetworkUtils.setTransport(new FakeHttpTransport().enqueue(serverError));
+
+        try {
+            NetworkUtils.fetchFromHttpUrl(
+                    new URL("https://andfun-weather.udacity.com/staticweather"), mReadBody);
+            fail("A 503 should have failed the fetch");
+        } catch (IOException e) {
+            /* Expected */
+        }
+        assertEquals(0, mBodiesRead);
+        assertTrue(serverError.isClosed());
+    }
+
+    @Test
+    public void testGetResponseFromHttpUrl() throws Exception {
+        assertEquals(FORECAST_BODY,
+                NetworkUtils.getResponseFromHttpUrl(mServer.getUrl(FORECAST_PATH)));
+    }
+
+    /**
+     * The first fetch should download the body and send no validators. The second should send
+     * back the validators of the first response, and be told that nothing changed without the
+     * handler ever being called.
+     */
+    @Test
+    public void testSecondFetchIsNotModified() throws Exception {
+        URL url = mServer.getUrl(FORECAST_PATH);
+
+        assertEquals(FORECAST_BODY,
+                NetworkUtils.fetchFromHttpUrlIfModified(mContext, url, mReadBody));
+        assertNull("The first request shouldn't be conditional",
+                mServer.getRequests().get(0).getHeader("If-None-Match"));
+
+        try {
+            NetworkUtils.fetchFromHttpUrlIfModified(mContext, url, mReadBody);
+            fail("The second fetch should have been told the response wasn't modified");
+        } catch (NotModifiedException e) {
+            /* Expected */
+        }
+
+        StubHttpServer.Request secondRequest = mServer.getRequests().get(1);
+        assertEquals(FORECAST_ETAG, secondRequest.getHeader("If-None-Match"));
+        assertEquals(FORECAST_LAST_MODIFIED, secondRequest.getHeader("If-Modified-Since"));
+        assertEquals("The body of a 304 should never be read", 1, mBodiesRead);
+    }
+
+    /**
+     * Once the validators are cleared, the next fetch should download the body again.
+     */
+    @Test
+    public void testClearedValidatorsFetchAgain() throws Exception {
+        URL url = mServer.getUrl(FORECAST_PATH);
+
+        NetworkUtils.fetchFromHttpUrlIfModified(mContext, url, mReadBody);
+        NetworkUtils.clearResponseValidators(mContext);
+
+        assertEquals(FORECAST_BODY,
+                NetworkUtils.fetchFromHttpUrlIfModified(mContext, url, mReadBody));
+        assertNull(mServer.getRequests().get(1).getHeader("If-None-Match"));
+        assertEquals(2, mBodiesRead);
+    }
+
+    /**
+     * The forecast is dated counting from the day it was parsed on, so once the day changes the
+     * next fetch should download and parse the body again, even though it hasn't changed.
+     */
+    @Test
+    public void testValidatorsAreNotSentOnALaterDay() throws Exception {
+        URL url = mServer.getUrl(FORECAST_PATH);
+        long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+
+        NetworkUtils.fetchFromHttpUrlIfModified(mContext, url, mReadBody, today);
+        assertEquals(FORECAST_BODY, NetworkUtils.fetchFromHttpUrlIfModified(
+                mContext, url, mReadBody, today + SunshineDateUtils.DAY_IN_MILLIS));
+
+        assertNull(mServer.getRequests().get(1).getHeader("If-None-Match"));
+        assertEquals(2, mBodiesRead);
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.Context;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.R;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Locale;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Checks that {@link WeatherFormatter} gives exactly the Strings String.format gave with our
+ * format strings, then compares the time and the bytes allocated by each of them, and writes
+ * them to logcat under the tag of this class. How much is allocated depends on the version of
+ * ART, the JIT and the garbage collector, so those numbers are only logged, never asserted on.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestWeatherFormatterBenchmark {
+
+    private static final String TAG = TestWeatherFormatterBenchmark.class.getSimpleName();
+
+    private static final int RUNS = 20000;
+
+    private static final double[] EDGE_CASES = {
+            0, -0.0, 0.5, -0.5, 0.49999999999999994, -0.49999999999999994, 2.5, -2.5,
+            1e14 + 0.5, -1e14 - 0.5, 1e15, 1e20, -1e20, Double.MAX_VALUE, Double.MIN_VALUE,
+            Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY
+    };
+
+    private static final String[] DIRECTIONS = {
+            "N", "NE", "E", "SE", "S", "SW", "W", "NW", "Unknown"
+    };
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @Test
+    public void testTemperaturesMatchStringFormat() {
+        assertTemperaturesMatch();
+    }
+
+    @Test
+    public void testWindMatchesStringFormat() {
+        assertWindMatches(R.string.format_wind_kmh);
+        assertWindMatches(R.string.format_wind_mph);
+    }
+
+    /**
+     * Locales that write numbers differently should still give what String.format gives, even
+     * if that means WeatherFormatter has to use String.format itself.
+     */
+    @Test
+    public void testOtherLocalesMatchStringFormat() {
+        Locale original = Locale.getDefault();
+        try {
+            for (Locale locale : new Locale[]{
+                    Locale.GERMANY, Locale.FRANCE, new Locale("ar", "EG"), new Locale("fa"),
+                    new Locale("hi", "IN")}) {
+                Locale.setDefault(locale);
+                assertTemperaturesMatch();
+                assertWindMatches(R.string.format_wind_kmh);
+            }
+        } finally {
+            Locale.setDefault(original);
+        }
+    }
+
+    @Test
+    public void benchmarkTemperature() {
+        String format = mContext.getString(R.string.format_temperature);
+        StringBuilder builder = new StringBuilder();
+
+        /* Parse the format string before we start counting */
+        WeatherFormatter.appendTemperature(mContext, builder, 0);
+
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocSize();
+            long start = System.nanoTime();
+            for (int run = 0; run < RUNS; run++) {
+                String.format(format, temperatureForRun(run));
+            }
+            long formatNanos = System.nanoTime() - start;
+            long formatBytes = Debug.getThreadAllocSize();
+
+            Debug.resetThreadAllocSize();
+            start = System.nanoTime();
+            for (int run = 0; run < RUNS; run++) {
+                builder.setLength(0);
+                WeatherFormatter.appendTemperature(mContext, builder, temperatureForRun(run));
+            }
+            long appendNanos = System.nanoTime() - start;
+            long appendBytes = Debug.getThreadAllocSize();
+
+            Log.i(TAG, "String.format " + formatNanos / RUNS + "ns " + formatBytes / RUNS + "B, "
+                    + "WeatherFormatter " + appendNanos / RUNS + "ns " + appendBytes / RUNS + "B "
+                    + "per temperature");
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    private void assertTemperaturesMatch() {
+        String format = mContext.getString(R.string.format_temperature);
+        for (int i = -2000; i <= 2000; i++) {
+            assertTemperatureMatches(format, i * 0.05);
+        }
+        for (double temperature : EDGE_CASES) {
+            assertTemperatureMatches(format, temperature);
+        }
+    }
+
+    private void assertTemperatureMatches(String format, double temperature) {
+        assertEquals("Formatting " + temperature,
+                String.format(format, temperature),
+                WeatherFormatter.formatTemperature(mContext, temperature));
+    }
+
+    private void assertWindMatches(int windFormatId) {
+        String format = mContext.getString(windFormatId);
+        for (int i = 0; i <= 1000; i++) {
+            /* Speeds in km/h, and the same speeds converted to mph as getFormattedWind does */
+            float[] speeds = {i * 0.1f, .621371192237334f * (i * 0.1f)};
+            for (float speed : speeds) {
+                String direction = DIRECTIONS[i % DIRECTIONS.length];
+                assertEquals("Formatting " + speed + " " + direction,
+                        String.format(format, speed, direction),
+                        WeatherFormatter.formatWind(mContext, windFormatId, speed, direction));
+            }
+        }
+    }
+
+    /* Half degrees from -40 to 40, so that half of them need rounding */
+    private static double temperatureForRun(int run) {
+        return (run % 161) * 0.5 - 40;
+    }
+}
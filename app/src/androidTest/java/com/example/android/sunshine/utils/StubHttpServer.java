@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utils;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A minimal HTTP/1.1 server on the loopback interface, for testing our networking code without
+ * going to the real weather server. Every request is answered by a {@link Handler} and the
+ * connection is closed afterwards. Requests are recorded, so tests can check what was sent.
+ */
+public class StubHttpServer implements Closeable {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    /**
+     * A request the server received. Header names are stored in lower case.
+     */
+    public static class Request {
+        public final String requestLine;
+        public final Map<String, String> headers;
+
+        Request(String requestLine, Map<String, String> headers) {
+            this.requestLine = requestLine;
+            this.headers = headers;
+        }
+
+        public String getHeader(String name) {
+            return headers.get(name.toLowerCase(Locale.US));
+        }
+    }
+
+    /**
+     * A response for the server to send. Content-Length is added automatically.
+     */
+    public static class Response {
+        final int status;
+        final String reason;
+        final Map<String, String> headers = new LinkedHashMap<>();
+        final byte[] body;
+
+        public Response(int status, String reason, byte[] body) {
+            this.status = status;
+            this.reason = reason;
+            this.body = body;
+        }
+
+        public Response addHeader(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+    }
+
+    public interface Handler {
+        Response handle(Request request) throws IOException;
+    }
+
+    private final ServerSocket mServerSocket;
+    private final Handler mHandler;
+    private final List<Request> mRequests = Collections.synchronizedList(new ArrayList<Request>());
+
+    public StubHttpServer(Handler handler) throws IOException {
+        mHandler = handler;
+        mServerSocket = new ServerSocket(0, 0, InetAddress.getByName("127.0.0.1"));
+
+        Thread acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!mServerSocket.isClosed()) {
+                    try {
+                        serve(mServerSocket.accept());
+                    } catch (IOException e) {
+                        /* The server socket was closed, or a client went away mid-request */
+                    }
+                }
+            }
+        }, "StubHttpServer");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    /**
+     * @param path The path to request, starting with a "/"
+     * @return A URL pointing at this server
+     */
+    public URL getUrl(String path) throws MalformedURLException {
+        return new URL("http", "127.0.0.1", mServerSocket.getLocalPort(), path);
+    }
+
+    public List<Request> getRequests() {
+        synchronized (mRequests) {
+            return new ArrayList<>(mRequests);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mServerSocket.close();
+    }
+
+    private void serve(Socket socket) throws IOException {
+        try {
+            BufferedReader reader =
+                    new BufferedReader(new InputStreamReader(socket.getInputStream(), ASCII));
+
+            String requestLine = reader.readLine();
+            if (requestLine == null) return;
+
+            Map<String, String> headers = new LinkedHashMap<>();
+            String line;
+            while ((line = reader.readLine()) != null && !line.isEmpty()) {
+                int colon = line.indexOf(':');
+                if (colon > 0) {
+                    headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US),
+                            line.substring(colon + 1).trim());
+                }
+            }
+
+            Request request = new Request(requestLine, headers);
+            mRequests.add(request);
+            Response response = mHandler.handle(request);
+
+            StringBuilder head = new StringBuilder();
+            head.append("HTTP/1.1 ").append(response.status).append(' ')
+                    .append(response.reason).append("\r\n");
+            for (Map.Entry<String, String> header : response.headers.entrySet()) {
+                head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+            }
+            head.append("Content-Length: ").append(response.body.length).append("\r\n");
+            head.append("Connection: close\r\n\r\n");
+
+            OutputStream out = socket.getOutputStream();
+            out.write(head.toString().getBytes(ASCII));
+            out.write(response.body);
+            out.flush();
+        } finally {
+            socket.close();
+        }
+    }
+}
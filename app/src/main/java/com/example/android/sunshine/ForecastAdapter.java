@@ -16,8 +16,10 @@
 package com.example.android.sunshine;
 
 import android.content.Context;
-import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
+import android.support.v7.util.DiffUtil;
 import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -25,18 +27,33 @@ import android.view.ViewGroup;
 import android.widget.ImageView;
 import android.widget.TextView;
 
-import com.example.android.sunshine.utilities.SunshineDateUtils;
 import com.example.android.sunshine.utilities.SunshineWeatherUtils;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
 /**
  * {@link ForecastAdapter} exposes a list of weather forecasts
- * from a {@link android.database.Cursor} to a {@link android.support.v7.widget.RecyclerView}.
+ * from a {@link ForecastSnapshot} to a {@link android.support.v7.widget.RecyclerView}.
  */
 class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapterViewHolder> {
 
     private static final int VIEW_TYPE_TODAY = 0;
     private static final int VIEW_TYPE_FUTURE_DAY = 1;
 
+    /*
+     * Comparing the old forecast with the new one is quick for a couple of weeks of weather, but
+     * it's still work the main thread doesn't need to do. Every adapter shares this one thread.
+     */
+    private static final ExecutorService sDiffExecutor =
+            Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(@NonNull Runnable runnable) {
+                    return new Thread(runnable, "ForecastAdapterDiff");
+                }
+            });
+
     /* The context we use to utility methods, app resources and layout inflaters */
     private final Context mContext;
 
@@ -63,7 +80,16 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
      */
     private boolean mUseTodayLayout;
 
-    private Cursor mCursor;
+    /*
+     * The forecast being shown. It is only replaced on the main thread, once the difference
+     * with the new forecast is known.
+     */
+    private ForecastSnapshot mForecast = ForecastSnapshot.EMPTY;
+
+    /* Incremented by every swapForecast, so that only the diff of the latest one is applied */
+    private int mSwapGeneration;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
 
     /**
      * Creates a ForecastAdapter.
@@ -129,12 +155,11 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
      */
     @Override
     public void onBindViewHolder(ForecastAdapterViewHolder forecastAdapterViewHolder, int position) {
-        mCursor.moveToPosition(position);
 
         /****************
          * Weather Icon *
          ****************/
-        int weatherId = mCursor.getInt(MainActivity.INDEX_WEATHER_CONDITION_ID);
+        int weatherId = mForecast.getWeatherId(position);
         int weatherImageId;
 
         int viewType = getItemViewType(position);
@@ -157,62 +182,37 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
 
         forecastAdapterViewHolder.iconView.setImageResource(weatherImageId);
 
+        /*
+         * Everything below was formatted by ForecastLoader on its background thread, once for
+         * every day, so binding a day doesn't format or allocate anything.
+         */
+
         /****************
          * Weather Date *
          ****************/
-         /* Read date from the cursor */
-        long dateInMillis = mCursor.getLong(MainActivity.INDEX_WEATHER_DATE);
-         /* Get human readable string using our utility method */
-        String dateString = SunshineDateUtils.getFriendlyDateString(mContext, dateInMillis, false);
-
-         /* Display friendly date string */
-        forecastAdapterViewHolder.dateView.setText(dateString);
+        forecastAdapterViewHolder.dateView.setText(mForecast.getDateString(position));
 
         /***********************
          * Weather Description *
          ***********************/
-        String description = SunshineWeatherUtils.getStringForWeatherCondition(mContext, weatherId);
-         /* Create the accessibility (a11y) String from the weather description */
-        String descriptionA11y = mContext.getString(R.string.a11y_forecast, description);
-
          /* Set the text and content description (for accessibility purposes) */
-        forecastAdapterViewHolder.descriptionView.setText(description);
-        forecastAdapterViewHolder.descriptionView.setContentDescription(descriptionA11y);
+        forecastAdapterViewHolder.descriptionView.setText(mForecast.getDescription(position));
+        forecastAdapterViewHolder.descriptionView
+                .setContentDescription(mForecast.getDescriptionA11y(position));
 
         /**************************
          * High (max) temperature *
          **************************/
-         /* Read high temperature from the cursor (in degrees celsius) */
-        double highInCelsius = mCursor.getDouble(MainActivity.INDEX_WEATHER_MAX_TEMP);
-         /*
-          * If the user's preference for weather is fahrenheit, formatTemperature will convert
-          * the temperature. This method will also append either °C or °F to the temperature
-          * String.
-          */
-        String highString = SunshineWeatherUtils.formatTemperature(mContext, highInCelsius);
-         /* Create the accessibility (a11y) String from the weather description */
-        String highA11y = mContext.getString(R.string.a11y_high_temp, highString);
-
-         /* Set the text and content description (for accessibility purposes) */
-        forecastAdapterViewHolder.highTempView.setText(highString);
-        forecastAdapterViewHolder.highTempView.setContentDescription(highA11y);
+        forecastAdapterViewHolder.highTempView.setText(mForecast.getHighString(position));
+        forecastAdapterViewHolder.highTempView
+                .setContentDescription(mForecast.getHighA11y(position));
 
         /*************************
          * Low (min) temperature *
          *************************/
-         /* Read low temperature from the cursor (in degrees celsius) */
-        double lowInCelsius = mCursor.getDouble(MainActivity.INDEX_WEATHER_MIN_TEMP);
-         /*
-          * If the user's preference for weather is fahrenheit, formatTemperature will convert
-          * the temperature. This method will also append either °C or °F to the temperature
-          * String.
-          */
-        String lowString = SunshineWeatherUtils.formatTemperature(mContext, lowInCelsius);
-        String lowA11y = mContext.getString(R.string.a11y_low_temp, lowString);
-
-         /* Set the text and content description (for accessibility purposes) */
-        forecastAdapterViewHolder.lowTempView.setText(lowString);
-        forecastAdapterViewHolder.lowTempView.setContentDescription(lowA11y);
+        forecastAdapterViewHolder.lowTempView.setText(mForecast.getLowString(position));
+        forecastAdapterViewHolder.lowTempView
+                .setContentDescription(mForecast.getLowA11y(position));
     }
 
     /**
@@ -223,8 +223,7 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
      */
     @Override
     public int getItemCount() {
-        if (null == mCursor) return 0;
-        return mCursor.getCount();
+        return mForecast.size();
     }
 
     /**
@@ -234,7 +233,7 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
      * different layout for the "today" layout. The "today" layout is only shown in portrait mode
      * with the first item in the list.
      *
-     * @param position index within our RecyclerView and Cursor
+     * @param position index within our RecyclerView and forecast
      * @return the view type (today or future day)
      */
     @Override
@@ -247,16 +246,89 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
     }
 
     /**
-     * Swaps the cursor used by the ForecastAdapter for its weather data. This method is called by
-     * MainActivity after a load has finished, as well as when the Loader responsible for loading
-     * the weather data is reset. When this method is called, we assume we have a completely new
-     * set of data, so we call notifyDataSetChanged to tell the RecyclerView to update.
+     * Swaps the forecast used by the ForecastAdapter for its weather data. This method is called
+     * by MainActivity after a load has finished, as well as when the Loader responsible for
+     * loading the weather data is reset.
+     * <p>
+     * Rather than telling the RecyclerView that everything changed, we compare the new forecast
+     * with the one being shown on a background thread, matching days by their date. Once that's
+     * done, the RecyclerView is told which days were added, removed or changed, so it only
+     * rebinds those and can animate the change. The old forecast is shown until then.
      *
-     * @param newCursor the new cursor to use as ForecastAdapter's data source
+     * @param newForecast the new forecast to use as ForecastAdapter's data source
+     */
+    void swapForecast(final ForecastSnapshot newForecast) {
+        final ForecastSnapshot oldForecast = mForecast;
+
+        /*
+         * Every day has to be rebound if the new forecast was formatted in other units, or on
+         * another day, as the friendly dates ("Today", "Tomorrow") change once the day is over.
+         */
+        final boolean rebindAll = newForecast.isMetric() != oldForecast.isMetric()
+                || newForecast.getToday() != oldForecast.getToday();
+
+        final int generation = ++mSwapGeneration;
+
+        sDiffExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final DiffUtil.DiffResult diff = DiffUtil.calculateDiff(
+                        new ForecastDiffCallback(oldForecast, newForecast, rebindAll), false);
+
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        /* A newer forecast was swapped in meanwhile, and will be diffed instead */
+                        if (generation != mSwapGeneration) return;
+
+                        mForecast = newForecast;
+                        diff.dispatchUpdatesTo(ForecastAdapter.this);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Tells DiffUtil how two forecasts differ. Days are the same item if they have the same date,
+     * and have the same contents if their weather is the same and they are shown with the same
+     * layout. The first day may be shown with the "today" layout, so a day that moves to or from
+     * the top of the list has to be rebound even if its weather didn't change.
      */
-    void swapCursor(Cursor newCursor) {
-        mCursor = newCursor;
-        notifyDataSetChanged();
+    private class ForecastDiffCallback extends DiffUtil.Callback {
+
+        private final ForecastSnapshot mOldForecast;
+        private final ForecastSnapshot mNewForecast;
+        private final boolean mRebindAll;
+
+        ForecastDiffCallback(ForecastSnapshot oldForecast, ForecastSnapshot newForecast,
+                             boolean rebindAll) {
+            mOldForecast = oldForecast;
+            mNewForecast = newForecast;
+            mRebindAll = rebindAll;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldForecast.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewForecast.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldForecast.getDate(oldItemPosition) == mNewForecast.getDate(newItemPosition);
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return !mRebindAll
+                    && getItemViewType(oldItemPosition) == getItemViewType(newItemPosition)
+                    && mOldForecast.hasSameWeather(oldItemPosition, mNewForecast, newItemPosition);
+        }
     }
 
     /**
@@ -294,8 +366,8 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
         @Override
         public void onClick(View v) {
             int adapterPosition = getAdapterPosition();
-            mCursor.moveToPosition(adapterPosition);
-            long dateInMillis = mCursor.getLong(MainActivity.INDEX_WEATHER_DATE);
+            if (adapterPosition == RecyclerView.NO_POSITION) return;
+            long dateInMillis = mForecast.getDate(adapterPosition);
             mClickHandler.onClick(dateInMillis);
         }
     }
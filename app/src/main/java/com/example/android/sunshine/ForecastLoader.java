@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.v4.content.AsyncTaskLoader;
+
+/**
+ * Loads the forecast shown by MainActivity as a {@link ForecastSnapshot}. This works like a
+ * CursorLoader, except that the rows are copied out of the Cursor on the loader's background
+ * thread, and the Cursor is closed straight away. The main thread never has to read from a
+ * CursorWindow, and nothing shares a cursor position with anything else. The strings shown for
+ * each day are formatted here too, so the list doesn't have to format them while scrolling.
+ * <p>
+ * Like a CursorLoader, it loads the forecast again whenever our ContentProvider says the weather
+ * at its URI, or anywhere below it, changed.
+ */
+class ForecastLoader extends AsyncTaskLoader<ForecastSnapshot> {
+
+    private final ForceLoadContentObserver mObserver = new ForceLoadContentObserver();
+
+    private final Uri mUri;
+    private final String[] mProjection;
+    private final String mSelection;
+    private final String[] mSelectionArgs;
+    private final String mSortOrder;
+
+    private ForecastSnapshot mForecast;
+    private boolean mObserving;
+
+    /**
+     * Creates a loader for the given query, which must be over
+     * {@link MainActivity#MAIN_FORECAST_PROJECTION}. The arguments are those of
+     * {@link android.content.ContentResolver#query}.
+     */
+    ForecastLoader(Context context, Uri uri, String[] projection, String selection,
+                   String[] selectionArgs, String sortOrder) {
+        super(context);
+        mUri = uri;
+        mProjection = projection;
+        mSelection = selection;
+        mSelectionArgs = selectionArgs;
+        mSortOrder = sortOrder;
+    }
+
+    @Override
+    public ForecastSnapshot loadInBackground() {
+        Cursor cursor = getContext().getContentResolver().query(
+                mUri, mProjection, mSelection, mSelectionArgs, mSortOrder);
+        try {
+            return ForecastSnapshot.fromCursor(getContext(), cursor);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    @Override
+    public void deliverResult(ForecastSnapshot forecast) {
+        if (isReset()) return;
+
+        mForecast = forecast;
+        if (isStarted()) {
+            super.deliverResult(forecast);
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        /*
+         * We don't keep a Cursor around to be notified through, so we listen to the URI the
+         * Cursor would have been notified about ourselves.
+         */
+        if (!mObserving) {
+            getContext().getContentResolver().registerContentObserver(mUri, true, mObserver);
+            mObserving = true;
+        }
+
+        if (mForecast != null) {
+            deliverResult(mForecast);
+        }
+        if (takeContentChanged() || mForecast == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+
+        if (mObserving) {
+            getContext().getContentResolver().unregisterContentObserver(mObserver);
+            mObserving = false;
+        }
+        mForecast = null;
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import com.example.android.sunshine.data.SunshinePreferences;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+import com.example.android.sunshine.utilities.SunshineWeatherUtils;
+
+/**
+ * An immutable copy of the forecast shown by {@link ForecastAdapter}, one day per position. It
+ * holds the columns of {@link MainActivity#MAIN_FORECAST_PROJECTION}, in arrays of primitives,
+ * along with every string the list shows for each day, already formatted in the user's units.
+ * {@link ForecastLoader} builds it on its background thread, and closes the Cursor. Binding a
+ * day is then nothing but array reads and setText calls, and the adapter can compare it with the
+ * next forecast on another thread.
+ * <p>
+ * The strings depend on the units and on which day is today, so a snapshot has to be built
+ * again when either of those change. See {@link #isOutOfDate()}.
+ */
+final class ForecastSnapshot {
+
+    static final ForecastSnapshot EMPTY = new ForecastSnapshot(0, false, 0);
+
+    /* The units the temperatures were formatted in, and the day the dates were formatted on */
+    private final boolean mIsMetric;
+    private final long mToday;
+
+    private final long[] mDates;
+    private final double[] mMaxTemps;
+    private final double[] mMinTemps;
+    private final int[] mWeatherIds;
+
+    private final String[] mDateStrings;
+    private final String[] mDescriptions;
+    private final String[] mDescriptionA11ys;
+    private final String[] mHighStrings;
+    private final String[] mHighA11ys;
+    private final String[] mLowStrings;
+    private final String[] mLowA11ys;
+
+    private ForecastSnapshot(int count, boolean isMetric, long today) {
+        mIsMetric = isMetric;
+        mToday = today;
+
+        mDates = new long[count];
+        mMaxTemps = new double[count];
+        mMinTemps = new double[count];
+        mWeatherIds = new int[count];
+
+        mDateStrings = new String[count];
+        mDescriptions = new String[count];
+        mDescriptionA11ys = new String[count];
+        mHighStrings = new String[count];
+        mHighA11ys = new String[count];
+        mLowStrings = new String[count];
+        mLowA11ys = new String[count];
+    }
+
+    /**
+     * Copies every row of a Cursor over MAIN_FORECAST_PROJECTION, and formats the strings shown
+     * for each of them. This reads SharedPreferences and resources, so it belongs on a
+     * background thread. The Cursor is left at the position it was at.
+     *
+     * @param context Used to read the user's units and to format the strings
+     * @param cursor  The forecast, or null
+     * @return The copy, which is empty if the cursor was null
+     */
+    static ForecastSnapshot fromCursor(Context context, Cursor cursor) {
+        if (cursor == null || cursor.getCount() == 0) return EMPTY;
+
+        int count = cursor.getCount();
+        ForecastSnapshot forecast = new ForecastSnapshot(count,
+                SunshinePreferences.isMetric(context),
+                SunshineDateUtils.getNormalizedUtcDateForToday());
+
+        int originalPosition = cursor.getPosition();
+        for (int i = 0; i < count && cursor.moveToPosition(i); i++) {
+            forecast.mDates[i] = cursor.getLong(MainActivity.INDEX_WEATHER_DATE);
+            forecast.mMaxTemps[i] = cursor.getDouble(MainActivity.INDEX_WEATHER_MAX_TEMP);
+            forecast.mMinTemps[i] = cursor.getDouble(MainActivity.INDEX_WEATHER_MIN_TEMP);
+            forecast.mWeatherIds[i] = cursor.getInt(MainActivity.INDEX_WEATHER_CONDITION_ID);
+            forecast.formatDay(context, i);
+        }
+        cursor.moveToPosition(originalPosition);
+
+        return forecast;
+    }
+
+    /**
+     * Formats the strings shown for the day at the given position, exactly as ForecastAdapter
+     * used to when binding it.
+     */
+    private void formatDay(Context context, int position) {
+        /* Get human readable string using our utility method */
+        mDateStrings[position] =
+                SunshineDateUtils.getFriendlyDateString(context, mDates[position], false);
+
+        /* Create the accessibility (a11y) String from the weather description */
+        String description =
+                SunshineWeatherUtils.getStringForWeatherCondition(context, mWeatherIds[position]);
+        mDescriptions[position] = description;
+        mDescriptionA11ys[position] = context.getString(R.string.a11y_forecast, description);
+
+        /*
+         * If the user's preference for weather is fahrenheit, formatTemperature will convert the
+         * temperature. This method will also append either °C or °F to the temperature String.
+         */
+        String highString = SunshineWeatherUtils.formatTemperature(context, mMaxTemps[position]);
+        mHighStrings[position] = highString;
+        mHighA11ys[position] = context.getString(R.string.a11y_high_temp, highString);
+
+        String lowString = SunshineWeatherUtils.formatTemperature(context, mMinTemps[position]);
+        mLowStrings[position] = lowString;
+        mLowA11ys[position] = context.getString(R.string.a11y_low_temp, lowString);
+    }
+
+    int size() {
+        return mDates.length;
+    }
+
+    /**
+     * @return true if the temperatures were formatted in metric units
+     */
+    boolean isMetric() {
+        return mIsMetric;
+    }
+
+    /**
+     * @return The normalized UTC date of the day this snapshot was formatted on
+     */
+    long getToday() {
+        return mToday;
+    }
+
+    /**
+     * @return true if the friendly dates of this snapshot were formatted before today, so that
+     * "Today" and "Tomorrow" no longer point at the right days
+     */
+    boolean isOutOfDate() {
+        return size() != 0 && mToday != SunshineDateUtils.getNormalizedUtcDateForToday();
+    }
+
+    /**
+     * @return The normalized UTC date of the day at the given position
+     * @see com.example.android.sunshine.data.WeatherContract.WeatherEntry#COLUMN_DATE
+     */
+    long getDate(int position) {
+        return mDates[position];
+    }
+
+    /**
+     * @return The high temperature of the day at the given position, in degrees celsius
+     */
+    double getMaxTemp(int position) {
+        return mMaxTemps[position];
+    }
+
+    /**
+     * @return The low temperature of the day at the given position, in degrees celsius
+     */
+    double getMinTemp(int position) {
+        return mMinTemps[position];
+    }
+
+    int getWeatherId(int position) {
+        return mWeatherIds[position];
+    }
+
+    String getDateString(int position) {
+        return mDateStrings[position];
+    }
+
+    String getDescription(int position) {
+        return mDescriptions[position];
+    }
+
+    String getDescriptionA11y(int position) {
+        return mDescriptionA11ys[position];
+    }
+
+    String getHighString(int position) {
+        return mHighStrings[position];
+    }
+
+    String getHighA11y(int position) {
+        return mHighA11ys[position];
+    }
+
+    String getLowString(int position) {
+        return mLowStrings[position];
+    }
+
+    String getLowA11y(int position) {
+        return mLowA11ys[position];
+    }
+
+    /**
+     * @return true if the day at position in this snapshot shows the same weather as the day at
+     * otherPosition in the other one
+     */
+    boolean hasSameWeather(int position, ForecastSnapshot other, int otherPosition) {
+        return mWeatherIds[position] == other.mWeatherIds[otherPosition]
+                && Double.compare(mMaxTemps[position], other.mMaxTemps[otherPosition]) == 0
+                && Double.compare(mMinTemps[position], other.mMinTemps[otherPosition]) == 0;
+    }
+}
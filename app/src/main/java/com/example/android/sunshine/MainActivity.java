@@ -16,13 +16,12 @@
 package com.example.android.sunshine;
 
 import android.content.Intent;
-import android.database.Cursor;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.LinearLayoutManager;
@@ -38,16 +37,18 @@ import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
 import com.example.android.sunshine.data.WeatherWearable;
 import com.example.android.sunshine.sync.SunshineSyncUtils;
+import com.example.android.sunshine.sync.SyncMetrics;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.common.api.ResultCallback;
 import com.google.android.gms.wearable.DataApi;
 import com.google.android.gms.wearable.PutDataMapRequest;
 import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 
+import java.util.concurrent.TimeUnit;
+
 public class MainActivity extends AppCompatActivity implements
-        LoaderManager.LoaderCallbacks<Cursor>,
+        LoaderManager.LoaderCallbacks<ForecastSnapshot>,
         ForecastAdapter.ForecastAdapterOnClickHandler,
         GoogleApiClient.ConnectionCallbacks,
         GoogleApiClient.OnConnectionFailedListener {
@@ -91,6 +92,12 @@ public class MainActivity extends AppCompatActivity implements
 
     private ProgressBar mLoadingIndicator;
 
+    /* The location setting whose forecast our loader is currently showing */
+    private String mLocationSetting;
+
+    /* The forecast our loader last delivered */
+    private ForecastSnapshot mForecast;
+
     private GoogleApiClient googleApiClient;
 
     /**
@@ -108,6 +115,11 @@ public class MainActivity extends AppCompatActivity implements
      */
     private static final String KEY_TEMPERATURE_RANGE = "temperature_range";
 
+    /**
+     * How long to wait for the forecast to reach the Android Wear network before giving up
+     */
+    private static final long WEARABLE_PUSH_TIMEOUT_SECONDS = 30;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -173,6 +185,8 @@ public class MainActivity extends AppCompatActivity implements
 
         showLoading();
 
+        mLocationSetting = SunshinePreferences.getPreferredWeatherLocation(this);
+
         /*
          * Ensures a loader is initialized and active. If the loader doesn't already exist, one is
          * created and (if the activity/fragment is currently started) starts the loader. Otherwise
@@ -185,6 +199,30 @@ public class MainActivity extends AppCompatActivity implements
         buildAndConnectGoogleApiClient();
     }
 
+    /**
+     * If the user picked a different location in the settings while we were stopped, restart
+     * our loader on that location's forecast. We store the forecasts of every location the user
+     * has picked, so a location we have synced before is shown straight away, while the sync
+     * started by SettingsFragment brings it up to date.
+     */
+    @Override
+    protected void onStart() {
+        super.onStart();
+
+        String locationSetting = SunshinePreferences.getPreferredWeatherLocation(this);
+        if (!locationSetting.equals(mLocationSetting)) {
+            mLocationSetting = locationSetting;
+            getSupportLoaderManager().restartLoader(ID_FORECAST_LOADER, null, this);
+        } else if (mForecast != null && mForecast.isOutOfDate()) {
+            /*
+             * The day changed since the forecast was loaded, so yesterday is still at the top
+             * of the list and the friendly dates are off by a day. Load it again, with a
+             * selection that starts today.
+             */
+            getSupportLoaderManager().restartLoader(ID_FORECAST_LOADER, null, this);
+        }
+    }
+
     /**
      * Uses the URI scheme for showing a location found on a map in conjunction with
      * an implicit Intent. This super-handy Intent is detailed in the "Common Intents" page of
@@ -221,28 +259,36 @@ public class MainActivity extends AppCompatActivity implements
      * @return A new Loader instance that is ready to start loading.
      */
     @Override
-    public Loader<Cursor> onCreateLoader(int loaderId, Bundle bundle) {
+    public Loader<ForecastSnapshot> onCreateLoader(int loaderId, Bundle bundle) {
 
 
         switch (loaderId) {
 
             case ID_FORECAST_LOADER:
-                /* URI for all rows of weather data in our weather table */
-                Uri forecastQueryUri = WeatherContract.WeatherEntry.CONTENT_URI;
+                /* URI for all rows of weather data stored for the preferred location */
+                Uri forecastQueryUri = WeatherContract.WeatherEntry
+                        .buildWeatherUriWithLocation(mLocationSetting);
                 /* Sort order: Ascending by date */
                 String sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
                 /*
                  * A SELECTION in SQL declares which rows you'd like to return. In our case, we
                  * want all weather data from today onwards that is stored in our weather table.
-                 * We created a handy method to do that in our WeatherEntry class.
+                 * We created a handy method to do that in our WeatherEntry class, along with
+                 * one for the argument (today's date) that goes with it.
                  */
                 String selection = WeatherContract.WeatherEntry.getSqlSelectForTodayOnwards();
+                String[] selectionArgs =
+                        WeatherContract.WeatherEntry.getSelectionArgsForTodayOnwards();
 
-                return new CursorLoader(this,
+                /*
+                 * The forecast is copied out of the Cursor on the loader's thread, so the
+                 * adapter never has to read from a Cursor on the main thread.
+                 */
+                return new ForecastLoader(this,
                         forecastQueryUri,
                         MAIN_FORECAST_PROJECTION,
                         selection,
-                        null,
+                        selectionArgs,
                         sortOrder);
 
             default:
@@ -262,11 +308,12 @@ public class MainActivity extends AppCompatActivity implements
      * @param data   The data generated by the Loader.
      */
     @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        mForecastAdapter.swapCursor(data);
+    public void onLoadFinished(Loader<ForecastSnapshot> loader, ForecastSnapshot data) {
+        mForecast = data;
+        mForecastAdapter.swapForecast(data);
         if (mPosition == RecyclerView.NO_POSITION) mPosition = 0;
         mRecyclerView.smoothScrollToPosition(mPosition);
-        if (data.getCount() != 0) showWeatherDataView();
+        if (data.size() != 0) showWeatherDataView();
         /*
         Send the newly loaded weather data to the wearable device.
          */
@@ -280,12 +327,13 @@ public class MainActivity extends AppCompatActivity implements
      * @param loader The Loader that is being reset.
      */
     @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
+    public void onLoaderReset(Loader<ForecastSnapshot> loader) {
         /*
          * Since this Loader's data is now invalid, we need to clear the Adapter that is
          * displaying the data.
          */
-        mForecastAdapter.swapCursor(null);
+        mForecast = null;
+        mForecastAdapter.swapForecast(ForecastSnapshot.EMPTY);
     }
 
     /**
@@ -297,7 +345,8 @@ public class MainActivity extends AppCompatActivity implements
     @Override
     public void onClick(long date) {
         Intent weatherDetailIntent = new Intent(MainActivity.this, DetailActivity.class);
-        Uri uriForDateClicked = WeatherContract.WeatherEntry.buildWeatherUriWithDate(date);
+        Uri uriForDateClicked = WeatherContract.WeatherEntry
+                .buildWeatherUriWithLocationAndDate(mLocationSetting, date);
         weatherDetailIntent.setData(uriForDateClicked);
         startActivity(weatherDetailIntent);
     }
@@ -399,16 +448,17 @@ public class MainActivity extends AppCompatActivity implements
         Log.d(TAG, "googleApiClient onConnectionFailed");
     }
 
-    private void sendWeatherWearableData(Cursor cursor) {
+    private void sendWeatherWearableData(ForecastSnapshot forecast) {
         Log.d(TAG, "sendWeatherWearableData");
         //WeatherWearable previous = SunshinePreferences.getWeatherWearable(getApplicationContext());
 
         // Get the current weather data
-        WeatherWearable current = WeatherWearable.getWeatherWearable(getApplicationContext(), cursor);
-        if (current == null) {
-            Log.d(TAG, "Null cursor");
+        if (forecast.size() == 0) {
+            Log.d(TAG, "Empty forecast");
             return;
         }
+        WeatherWearable current = WeatherWearable.getWeatherWearable(getApplicationContext(),
+                forecast.getWeatherId(0), forecast.getMaxTemp(0), forecast.getMinTemp(0));
 
         /*
         If the data present in the WatchFace is the same as today's weather data, do not
@@ -456,20 +506,32 @@ public class MainActivity extends AppCompatActivity implements
         Create the new PutDataRequest to pass the current weather data item in the
         Android Wear network.
          */
-        PutDataRequest putDataRequest = putDataMapRequest.asPutDataRequest();
+        final PutDataRequest putDataRequest = putDataMapRequest.asPutDataRequest();
         putDataMapRequest.setUrgent();
 
         /*
         Add the newly created putDataRequest in the Android Wear network for the WatchFace
-        to update itself.
+        to update itself. We wait for the result on a background thread rather than in a
+        callback on the main thread, so the time we record is the time the push took, not
+        the time the main thread took to get around to telling us.
          */
-        Wearable.DataApi.putDataItem(googleApiClient, putDataRequest)
-                .setResultCallback(new ResultCallback<DataApi.DataItemResult>() {
-                    @Override
-                    public void onResult(@NonNull DataApi.DataItemResult dataItemResult) {
-                        Log.d(TAG, "PutDataRequest success: " + dataItemResult.getStatus().isSuccess());
-                    }
-                });
+        final GoogleApiClient client = googleApiClient;
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                long pushStartNanos = System.nanoTime();
+                DataApi.DataItemResult dataItemResult = Wearable.DataApi
+                        .putDataItem(client, putDataRequest)
+                        .await(WEARABLE_PUSH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                long pushNanos = System.nanoTime() - pushStartNanos;
+
+                Log.d(TAG, "PutDataRequest success: " + dataItemResult.getStatus().isSuccess());
+                if (dataItemResult.getStatus().isSuccess()) {
+                    /* Counted towards the sync that wrote the forecast we just sent, if any */
+                    SyncMetrics.getInstance().recordWearablePush(pushNanos);
+                }
+            }
+        });
     }
 
     @Override
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.util.LruCache;
+
+/**
+ * Keeps the results of recent weather queries in memory, so that a CursorLoader reloading after a
+ * rotation or a trip back from DetailActivity doesn't have to go to disk. Our weather only
+ * changes when a sync writes to WeatherProvider, so rather than expiring entries after some time,
+ * WeatherProvider calls {@link #invalidate()} after every write it commits.
+ * <p>
+ * Cursors can't be shared between callers, so we store a copy of each result's rows and hand out a
+ * new MatrixCursor over them for every hit.
+ * <p>
+ * A query that was started before a write, but finishes after it, would otherwise put rows in the
+ * cache that are already stale. To prevent that, callers read {@link #getGeneration()} before they
+ * query the database, and {@link #put} drops results that belong to an older generation.
+ */
+class ForecastCache {
+
+    /*
+     * The cache is bounded by the total number of rows it holds. A forecast is 14 rows, so this
+     * is room for the forecast list and detail screens of several locations.
+     */
+    static final int MAX_CACHED_ROWS = 512;
+
+    /* Separates the parts of a cache key. It can't appear in a URI, column name or selection. */
+    private static final char KEY_SEPARATOR = '\u0000';
+
+    private final LruCache<String, Snapshot> mSnapshots =
+            new LruCache<String, Snapshot>(MAX_CACHED_ROWS) {
+                @Override
+                protected int sizeOf(String key, Snapshot snapshot) {
+                    /* Empty results are cached too, so every entry must count for something */
+                    return Math.max(1, snapshot.rows.length);
+                }
+            };
+
+    private long mGeneration;
+
+    /**
+     * Builds the key a query's result is cached under. Two queries share a key only if every
+     * argument they were made with is the same.
+     *
+     * @return The key to pass to {@link #get} and {@link #put}
+     */
+    static String buildKey(Uri uri, String[] projection, String selection,
+                           String[] selectionArgs, String sortOrder) {
+        StringBuilder key = new StringBuilder(uri.toString());
+        appendPart(key, projection);
+        key.append(KEY_SEPARATOR).append(selection);
+        appendPart(key, selectionArgs);
+        key.append(KEY_SEPARATOR).append(sortOrder);
+        return key.toString();
+    }
+
+    private static void appendPart(StringBuilder key, String[] values) {
+        key.append(KEY_SEPARATOR);
+        if (values == null) {
+            key.append("null");
+            return;
+        }
+        key.append(values.length);
+        for (String value : values) {
+            key.append(KEY_SEPARATOR).append(value);
+        }
+    }
+
+    /**
+     * @return The generation the cache is in. Read this before querying the database, and pass it
+     * to {@link #put} along with the result.
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Returns a new cursor over the rows cached under a key.
+     *
+     * @param key The key built by {@link #buildKey}
+     * @return A cursor positioned before the first row, or null if nothing is cached for the key
+     */
+    synchronized Cursor get(String key) {
+        Snapshot snapshot = mSnapshots.get(key);
+        if (snapshot == null) return null;
+
+        MatrixCursor cursor = new MatrixCursor(snapshot.columnNames, snapshot.rows.length);
+        for (Object[] row : snapshot.rows) {
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    /**
+     * Copies every row of a cursor into the cache, and then moves the cursor back before its
+     * first row so that the caller can hand it out as if it had never been read. Nothing is
+     * stored if the cache has been invalidated since the given generation, or if the result has
+     * more rows than the whole cache holds; the cursor is then left as it was.
+     *
+     * @param key        The key built by {@link #buildKey}
+     * @param generation The value {@link #getGeneration()} returned before the cursor was queried
+     * @param cursor     The result of the query
+     */
+    void put(String key, long generation, Cursor cursor) {
+        /*
+         * A result this large would push everything else out of the cache and still not fit, so
+         * don't copy it at all. Copying it first would hold every row in memory twice.
+         */
+        if (cursor.getCount() > MAX_CACHED_ROWS) return;
+
+        /* Filling the snapshot reads the cursor's window, so we do it outside of the lock */
+        Snapshot snapshot = new Snapshot(cursor);
+        cursor.moveToPosition(-1);
+
+        synchronized (this) {
+            if (generation == mGeneration) {
+                mSnapshots.put(key, snapshot);
+            }
+        }
+    }
+
+    /**
+     * Forgets every cached result. WeatherProvider calls this after committing a write and before
+     * notifying observers, so that the queries they make in response read the new rows.
+     */
+    synchronized void invalidate() {
+        mGeneration++;
+        mSnapshots.evictAll();
+    }
+
+    /**
+     * The rows of a query result, with each value stored as the type SQLite returned it as.
+     */
+    private static class Snapshot {
+
+        final String[] columnNames;
+        final Object[][] rows;
+
+        Snapshot(Cursor cursor) {
+            columnNames = cursor.getColumnNames();
+            rows = new Object[cursor.getCount()][];
+
+            int columnCount = columnNames.length;
+            cursor.moveToPosition(-1);
+            for (int i = 0; cursor.moveToNext(); i++) {
+                Object[] row = new Object[columnCount];
+                for (int column = 0; column < columnCount; column++) {
+                    switch (cursor.getType(column)) {
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            row[column] = cursor.getLong(column);
+                            break;
+                        case Cursor.FIELD_TYPE_FLOAT:
+                            row[column] = cursor.getDouble(column);
+                            break;
+                        case Cursor.FIELD_TYPE_STRING:
+                            row[column] = cursor.getString(column);
+                            break;
+                        case Cursor.FIELD_TYPE_BLOB:
+                            row[column] = cursor.getBlob(column);
+                            break;
+                        default:
+                            row[column] = null;
+                    }
+                }
+                rows[i] = row;
+            }
+        }
+    }
+}
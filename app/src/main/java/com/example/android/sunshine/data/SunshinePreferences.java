@@ -31,6 +31,19 @@ public final class SunshinePreferences {
     public static final String PREF_COORD_LAT = "coord_lat";
     public static final String PREF_COORD_LONG = "coord_long";
 
+    /*
+     * Whether the user prefers metric units is read every time a temperature or a wind speed is
+     * formatted, which happens dozens of times for every screen. Rather than going through
+     * SharedPreferences and two string resources each time, we read it once per process, and
+     * keep it up to date with a listener.
+     *
+     * SharedPreferences only keeps weak references to its listeners, so we hold on to ours.
+     * Listeners are called on the main thread, before anything the change triggers through a
+     * ContentObserver or a Loader gets to run, so nothing reads the old units after a change.
+     */
+    private static volatile Boolean sIsMetric;
+    private static SharedPreferences.OnSharedPreferenceChangeListener sUnitsListener;
+
     /**
      * Helper method to handle setting location details in Preferences (city name, latitude,
      * longitude)
@@ -89,8 +102,45 @@ public final class SunshinePreferences {
      * @return true if metric display should be used, false if imperial display should be used
      */
     public static boolean isMetric(Context context) {
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        Boolean isMetric = sIsMetric;
+        if (isMetric != null) {
+            return isMetric;
+        }
+        return loadIsMetric(context);
+    }
 
+    /**
+     * Reads the user's units for {@link #isMetric(Context)} the first time they are needed, and
+     * starts listening for changes to them.
+     */
+    private static synchronized boolean loadIsMetric(Context context) {
+        if (sIsMetric != null) {
+            return sIsMetric;
+        }
+
+        final Context appContext = context.getApplicationContext();
+        final String keyForUnits = appContext.getString(R.string.pref_units_key);
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(appContext);
+
+        /* Listen before reading, so a change made in between isn't missed */
+        sUnitsListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+            @Override
+            public void onSharedPreferenceChanged(SharedPreferences sharedPreferences,
+                                                  String key) {
+                /* The key is null when every preference was cleared */
+                if (key == null || keyForUnits.equals(key)) {
+                    sIsMetric = readIsMetric(appContext, sharedPreferences);
+                }
+            }
+        };
+        sp.registerOnSharedPreferenceChangeListener(sUnitsListener);
+
+        boolean isMetric = readIsMetric(appContext, sp);
+        sIsMetric = isMetric;
+        return isMetric;
+    }
+
+    private static boolean readIsMetric(Context context, SharedPreferences sp) {
         String keyForUnits = context.getString(R.string.pref_units_key);
         String defaultUnits = context.getString(R.string.pref_units_metric);
         String preferredUnits = sp.getString(keyForUnits, defaultUnits);
@@ -243,6 +293,86 @@ public final class SunshinePreferences {
         editor.apply();
     }
 
+    /**
+     * Returns the interval between periodic syncs that SunshineSyncUtils last settled on.
+     *
+     * @param context        Used to access SharedPreferences
+     * @param defaultSeconds Interval to return if none was saved yet
+     * @return Interval between periodic syncs, in seconds
+     */
+    public static int getSyncIntervalSeconds(Context context, int defaultSeconds) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        String syncIntervalKey = context.getString(R.string.pref_sync_interval);
+        return sp.getInt(syncIntervalKey, defaultSeconds);
+    }
+
+    /**
+     * Saves the interval between periodic syncs, so it survives the app being restarted.
+     *
+     * @param context         Used to access SharedPreferences
+     * @param intervalSeconds Interval between periodic syncs, in seconds
+     */
+    public static void saveSyncIntervalSeconds(Context context, int intervalSeconds) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        SharedPreferences.Editor editor = sp.edit();
+        String syncIntervalKey = context.getString(R.string.pref_sync_interval);
+        editor.putInt(syncIntervalKey, intervalSeconds);
+        editor.apply();
+    }
+
+    /**
+     * Returns the interval the periodic sync was last scheduled with. When this differs from
+     * {@link #getSyncIntervalSeconds}, the periodic sync still has to be rescheduled.
+     *
+     * @param context Used to access SharedPreferences
+     * @return Interval the periodic sync was scheduled with, in seconds, or 0 if we don't know
+     */
+    public static int getScheduledSyncIntervalSeconds(Context context) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        String scheduledIntervalKey = context.getString(R.string.pref_scheduled_sync_interval);
+        return sp.getInt(scheduledIntervalKey, 0);
+    }
+
+    /**
+     * Saves the interval the periodic sync was just scheduled with.
+     *
+     * @param context         Used to access SharedPreferences
+     * @param intervalSeconds Interval the periodic sync was scheduled with, in seconds
+     */
+    public static void saveScheduledSyncIntervalSeconds(Context context, int intervalSeconds) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        SharedPreferences.Editor editor = sp.edit();
+        String scheduledIntervalKey = context.getString(R.string.pref_scheduled_sync_interval);
+        editor.putInt(scheduledIntervalKey, intervalSeconds);
+        editor.apply();
+    }
+
+    /**
+     * Returns whether WeatherProvider has already tried to convert a database created without
+     * incremental auto-vacuum, which rewrites the whole file and so is only ever tried once.
+     *
+     * @param context Used to access SharedPreferences
+     * @return true if the conversion was attempted, whether or not it took effect
+     */
+    public static boolean isAutoVacuumConversionAttempted(Context context) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        String attemptedKey = context.getString(R.string.pref_auto_vacuum_conversion_attempted);
+        return sp.getBoolean(attemptedKey, false);
+    }
+
+    /**
+     * Remembers that WeatherProvider tried to convert the database to incremental auto-vacuum.
+     *
+     * @param context Used to access SharedPreferences
+     */
+    public static void saveAutoVacuumConversionAttempted(Context context) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        SharedPreferences.Editor editor = sp.edit();
+        String attemptedKey = context.getString(R.string.pref_auto_vacuum_conversion_attempted);
+        editor.putBoolean(attemptedKey, true);
+        editor.apply();
+    }
+
     public static WeatherWearable getWeatherWearable(Context context) {
         SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
         return new WeatherWearable(
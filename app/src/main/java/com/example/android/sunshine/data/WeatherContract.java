@@ -56,6 +56,82 @@ public class WeatherContract {
      */
     public static final String PATH_WEATHER = "weather";
 
+    /*
+     * PATH_LOCATION is used on its own to look at the locations we have stored forecasts for,
+     * and after PATH_WEATHER to look at the forecast of a single location. For instance,
+     *
+     *     content://com.example.android.sunshine/weather/location/94043,USA
+     *
+     * is the forecast we have stored for Mountain View, California.
+     */
+    public static final String PATH_LOCATION = "location";
+
+    /*
+     * Methods that can be passed to ContentResolver#call on BASE_CONTENT_URI. These are
+     * operations that don't map cleanly onto query/insert/delete, such as writing a whole
+     * forecast inside a single transaction.
+     *
+     * METHOD_UPSERT_FORECAST compares the forecast passed in EXTRA_FORECAST_VALUES against the
+     * rows already stored and only writes the days whose values actually changed.
+     */
+    public static final String METHOD_UPSERT_FORECAST = "upsert_forecast";
+
+    /*
+     * METHOD_REPLACE_FORECAST deletes every stored row and inserts the forecast passed in
+     * EXTRA_FORECAST_VALUES in its place. Readers never see an empty table in between.
+     */
+    public static final String METHOD_REPLACE_FORECAST = "replace_forecast";
+
+    /*
+     * Both of the methods above take the location setting the forecast belongs to as their arg.
+     * If no location setting is passed, the forecast belongs to the user's preferred location.
+     */
+
+    /* Key of the ContentValues[] (stored as a Parcelable array) passed to the methods above */
+    public static final String EXTRA_FORECAST_VALUES = "forecast_values";
+
+    /* Key of the int in the result Bundle that holds the number of rows that were written */
+    public static final String EXTRA_ROWS_WRITTEN = "rows_written";
+
+    /*
+     * Key of the int in the result Bundle of METHOD_UPSERT_FORECAST that holds how many of the
+     * rows written were already stored and updated, rather than inserted
+     */
+    public static final String EXTRA_ROWS_UPDATED = "rows_updated";
+
+    /*
+     * METHOD_PRUNE_FORECAST deletes the weather of every location from before the retention
+     * horizon, then hands the space those rows took back to the file system. Its arg is the
+     * number of days before today to keep, as a String. If no arg is passed, the number of days
+     * in R.integer.forecast_retention_days is kept.
+     */
+    public static final String METHOD_PRUNE_FORECAST = "prune_forecast";
+
+    /* Key of the int in the result Bundle that holds the number of rows that were deleted */
+    public static final String EXTRA_ROWS_DELETED = "rows_deleted";
+
+    /* Key of the long in the result Bundle that holds the number of pages given back */
+    public static final String EXTRA_PAGES_RECLAIMED = "pages_reclaimed";
+
+    /* Inner class that defines the table contents of the location table */
+    public static final class LocationEntry implements BaseColumns {
+
+        /* The base CONTENT_URI used to query the location table from the content provider */
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_LOCATION)
+                .build();
+
+        /* Used internally as the name of our location table. */
+        public static final String TABLE_NAME = "location";
+
+        /*
+         * The location setting is the string we send to OpenWeatherMap to request a forecast for
+         * a location, exactly as it is stored in the user's preferences. Each location setting is
+         * stored only once.
+         */
+        public static final String COLUMN_LOCATION_SETTING = "location_setting";
+    }
+
     /* Inner class that defines the table contents of the weather table */
     public static final class WeatherEntry implements BaseColumns {
 
@@ -85,6 +161,12 @@ public class WeatherContract {
          */
         public static final String COLUMN_DATE = "date";
 
+        /*
+         * The _ID of the row in the location table this forecast belongs to. Together with the
+         * date, it identifies a single row of the weather table.
+         */
+        public static final String COLUMN_LOC_KEY = "location_id";
+
         /* Weather ID as returned by API, used to identify the icon to be used */
         public static final String COLUMN_WEATHER_ID = "weather_id";
 
@@ -124,15 +206,62 @@ public class WeatherContract {
         }
 
         /**
-         * Returns just the selection part of the weather query from a normalized today value.
-         * This is used to get a weather forecast from today's date. To make this easy to use
-         * in compound selection, we embed today's date as an argument in the query.
+         * Builds a URI for the forecast stored for a single location. This is what MainActivity
+         * queries, so that switching back to a location we have already synced shows its
+         * forecast straight away instead of waiting for the network.
+         *
+         * @param locationSetting The location setting, as stored in the user's preferences
+         * @return Uri to query the forecast of a single location
+         */
+        public static Uri buildWeatherUriWithLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_LOCATION)
+                    .appendPath(locationSetting)
+                    .build();
+        }
+
+        /**
+         * Builds a URI for the weather of a single location on a single day. This is what we use
+         * for the detail view and the notification query. We assume a normalized date is passed
+         * to this method.
+         *
+         * @param locationSetting The location setting, as stored in the user's preferences
+         * @param date            Normalized date in milliseconds
+         * @return Uri to query details about a single weather entry of a location
+         */
+        public static Uri buildWeatherUriWithLocationAndDate(String locationSetting, long date) {
+            return buildWeatherUriWithLocation(locationSetting).buildUpon()
+                    .appendPath(Long.toString(date))
+                    .build();
+        }
+
+        /*
+         * The selection for weather from today onwards. Today's date is bound as an argument
+         * rather than written into the SQL, so the statement SQLite compiles for it is the same
+         * every day and can be reused from each connection's prepared statement cache.
+         */
+        private static final String SQL_SELECT_TODAY_ONWARDS = COLUMN_DATE + " >= ?";
+
+        /**
+         * Returns just the selection part of the weather query for today onwards. This is used to
+         * get a weather forecast from today's date. The selection has a single "?", which must
+         * be bound to the value returned by {@link #getSelectionArgsForTodayOnwards()}.
          *
          * @return The selection part of the weather query for today onwards
          */
         public static String getSqlSelectForTodayOnwards() {
+            return SQL_SELECT_TODAY_ONWARDS;
+        }
+
+        /**
+         * Returns the selection arguments that go with {@link #getSqlSelectForTodayOnwards()},
+         * which is simply today's normalized date.
+         *
+         * @return The selection arguments of the weather query for today onwards
+         */
+        public static String[] getSelectionArgsForTodayOnwards() {
             long normalizedUtcNow = SunshineDateUtils.normalizeDate(System.currentTimeMillis());
-            return WeatherContract.WeatherEntry.COLUMN_DATE + " >= " + normalizedUtcNow;
+            return new String[]{Long.toString(normalizedUtcNow)};
         }
     }
 }
\ No newline at end of file
@@ -15,10 +15,12 @@
  */
 package com.example.android.sunshine.data;
 
+import android.content.ContentValues;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
+import com.example.android.sunshine.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
 
 /**
@@ -43,10 +45,148 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
      * use-case, we wanted to watch out for it and warn you what could happen if you mistakenly
      * version your databases.
      */
-    private static final int DATABASE_VERSION = 3;
+    private static final int DATABASE_VERSION = 5;
+
+    /*
+     * The oldest database version that onUpgrade can migrate without losing data. Version 3 is
+     * the schema Sunshine shipped with, so every install we have migrates from here onwards.
+     */
+    private static final int OLDEST_MIGRATABLE_VERSION = 3;
+
+    /*
+     * Size of the page cache of the connection we write with, in KiB. SQLite reads a negative
+     * cache_size as a size in KiB rather than a number of pages. Even with months of history,
+     * our whole weather table fits in here, so there is no need for SQLite's 2 MiB default.
+     */
+    private static final int PAGE_CACHE_SIZE_KIB = 512;
+
+    /*
+     * This String will contain a simple SQL statement that will create a table that will store
+     * each location we have a forecast for.
+     */
+    private static final String SQL_CREATE_LOCATION_TABLE =
+
+            "CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
+
+            LocationEntry._ID                     + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+
+            /*
+             * Declaring the location setting unique means we can only store each location once.
+             * It also gives us an index to look locations up by their setting with.
+             */
+            LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL);";
+
+    /*
+     * This String will contain a simple SQL statement that will create a table that will
+     * cache our weather data.
+     */
+    private static final String SQL_CREATE_WEATHER_TABLE =
+
+            "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
+
+            /*
+             * WeatherEntry did not explicitly declare a column called "_ID". However,
+             * WeatherEntry implements the interface, "BaseColumns", which does have a field
+             * named "_ID". We use that here to designate our table's primary key.
+             */
+            WeatherEntry._ID               + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+
+            /*
+             * Every row belongs to a location. Foreign key constraints are off by default in
+             * SQLite and we leave them that way, so the REFERENCES clause documents the
+             * relationship rather than enforcing it.
+             */
+            WeatherEntry.COLUMN_LOC_KEY    + " INTEGER NOT NULL REFERENCES "
+                    + LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+
+            WeatherEntry.COLUMN_DATE       + " INTEGER NOT NULL, "                 +
+
+            WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL,"                  +
+
+            WeatherEntry.COLUMN_MIN_TEMP   + " REAL NOT NULL, "                    +
+            WeatherEntry.COLUMN_MAX_TEMP   + " REAL NOT NULL, "                    +
+
+            WeatherEntry.COLUMN_HUMIDITY   + " REAL NOT NULL, "                    +
+            WeatherEntry.COLUMN_PRESSURE   + " REAL NOT NULL, "                    +
+
+            WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, "                    +
+            WeatherEntry.COLUMN_DEGREES    + " REAL NOT NULL, "                    +
+
+            /*
+             * To ensure this table can only contain one weather entry per date for each
+             * location, we declare the pair of columns to be unique. We also specify "ON
+             * CONFLICT REPLACE". This tells SQLite that if we have a weather entry for a certain
+             * location and date and we attempt to insert another weather entry for them, we
+             * replace the old weather entry.
+             *
+             * SQLite backs this constraint with an index on (location, date), which is exactly
+             * the index our queries for a location's forecast need, so we don't declare another.
+             */
+            " UNIQUE (" + WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE
+                    + ") ON CONFLICT REPLACE);";
+
+    /*
+     * Name of the index that covers our forecast list and notification queries. Package-private
+     * so that tests can check that the query planner actually uses it.
+     */
+    static final String FORECAST_INDEX_NAME = "weather_forecast_index";
+
+    /*
+     * MainActivity asks for the date, max, min and weather_id of a location's days from today
+     * onwards, ordered by date. The notification asks for the weather_id, max and min of a single
+     * day. The UNIQUE (location, date) index finds those rows, but SQLite then has to read each
+     * of them from the table to get the rest of the columns. This index holds every column those
+     * queries use (the _ID is part of every index), so they are answered from the index alone,
+     * which already has the rows in date order. The cost is a second, slightly wider index to
+     * maintain on every write, which is only a couple of weeks of rows per sync.
+     */
+    private static final String SQL_CREATE_FORECAST_INDEX =
+
+            "CREATE INDEX " + FORECAST_INDEX_NAME + " ON " + WeatherEntry.TABLE_NAME + " (" +
+                    WeatherEntry.COLUMN_LOC_KEY    + ", " +
+                    WeatherEntry.COLUMN_DATE       + ", " +
+                    WeatherEntry.COLUMN_MAX_TEMP   + ", " +
+                    WeatherEntry.COLUMN_MIN_TEMP   + ", " +
+                    WeatherEntry.COLUMN_WEATHER_ID + ");";
+
+    /* Used by migrations that need to know the user's preferences */
+    private final Context mContext;
 
     public WeatherDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        mContext = context;
+    }
+
+    /**
+     * Called when the database connection is being configured, before onCreate, onUpgrade or
+     * onOpen. This is where we set up how SQLite journals and syncs our database.
+     * <p>
+     * With the default rollback journal, the sync writing a new forecast blocks MainActivity and
+     * DetailActivity from reading until it commits. In write-ahead logging mode, readers keep
+     * reading the last committed data on their own connections while a write is in progress.
+     * <p>
+     * In WAL mode, synchronous=NORMAL only syncs the log at checkpoints rather than on every
+     * commit. A commit can then be rolled back by a power loss, but the database can't be
+     * corrupted, and this database is only a cache that the next sync will refill anyway.
+     * <p>
+     * Finally, we ask for incremental auto-vacuum, so that the pages freed when old weather is
+     * pruned can be handed back to the file system without rewriting the whole database. This
+     * only takes effect for a database that doesn't have any tables yet. Conversion of older
+     * databases is tried once, the first time they are pruned, see WeatherProvider#pruneForecast.
+     *
+     * @param db The database.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+
+        db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+
+        /* This must come before the sync mode, as changing the journal mode resets it */
+        db.enableWriteAheadLogging();
+
+        db.execSQL("PRAGMA synchronous = NORMAL");
+        db.execSQL("PRAGMA cache_size = -" + PAGE_CACHE_SIZE_KIB);
     }
 
     /**
@@ -59,63 +199,112 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
 
         /*
-         * This String will contain a simple SQL statement that will create a table that will
-         * cache our weather data.
+         * After we've spelled out our SQLite table creation statements above, we actually
+         * execute that SQL with the execSQL method of our SQLite database object.
          */
-        final String SQL_CREATE_WEATHER_TABLE =
-
-                "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
-
-                /*
-                 * WeatherEntry did not explicitly declare a column called "_ID". However,
-                 * WeatherEntry implements the interface, "BaseColumns", which does have a field
-                 * named "_ID". We use that here to designate our table's primary key.
-                 */
-                WeatherEntry._ID               + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
-
-                WeatherEntry.COLUMN_DATE       + " INTEGER NOT NULL, "                 +
+        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_FORECAST_INDEX);
+    }
 
-                WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL,"                  +
+    /**
+     * Upgrades the database one version at a time, from oldVersion up to newVersion, by applying
+     * each version's migration in {@link #migrateTo(SQLiteDatabase, int)}. Migrations alter or
+     * copy the existing tables rather than dropping them, so the cached forecast survives an app
+     * update and we don't have to fetch everything from the network again.
+     * <p>
+     * This method runs inside a transaction, so if any migration fails, none of them are applied.
+     * <p>
+     * We only know how to migrate from {@link #OLDEST_MIGRATABLE_VERSION} onwards. Anything
+     * older (or a version we have never heard of) is treated as a plain cache: the table is
+     * dropped and recreated through onCreate. Note that this only fires if you change the
+     * version number for your database (in our case, DATABASE_VERSION). It does NOT depend on the
+     * version number for your application found in your app/build.gradle file.
+     *
+     * @param sqLiteDatabase Database that is being upgraded
+     * @param oldVersion     The old database version
+     * @param newVersion     The new database version
+     */
+    @Override
+    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        if (oldVersion < OLDEST_MIGRATABLE_VERSION || newVersion > DATABASE_VERSION) {
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
+            onCreate(sqLiteDatabase);
+            return;
+        }
 
-                WeatherEntry.COLUMN_MIN_TEMP   + " REAL NOT NULL, "                    +
-                WeatherEntry.COLUMN_MAX_TEMP   + " REAL NOT NULL, "                    +
+        for (int version = oldVersion + 1; version <= newVersion; version++) {
+            migrateTo(sqLiteDatabase, version);
+        }
+    }
 
-                WeatherEntry.COLUMN_HUMIDITY   + " REAL NOT NULL, "                    +
-                WeatherEntry.COLUMN_PRESSURE   + " REAL NOT NULL, "                    +
+    /**
+     * Applies the changes needed to bring a database at version - 1 to the given version. When
+     * you change the schema in onCreate, increment DATABASE_VERSION and add a case here that
+     * makes the same change to an existing database without throwing its rows away.
+     *
+     * @param sqLiteDatabase Database that is being upgraded
+     * @param version        The version to migrate to
+     */
+    private void migrateTo(SQLiteDatabase sqLiteDatabase, int version) {
+        switch (version) {
 
-                WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, "                    +
-                WeatherEntry.COLUMN_DEGREES    + " REAL NOT NULL, "                    +
+            case 4:
+                migrateToMultipleLocations(sqLiteDatabase);
+                break;
 
-                /*
-                 * To ensure this table can only contain one weather entry per date, we declare
-                 * the date column to be unique. We also specify "ON CONFLICT REPLACE". This tells
-                 * SQLite that if we have a weather entry for a certain date and we attempt to
-                 * insert another weather entry with that date, we replace the old weather entry.
-                 */
-                " UNIQUE (" + WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
+            case 5:
+                /* Version 5 adds the index that covers our forecast queries */
+                sqLiteDatabase.execSQL(SQL_CREATE_FORECAST_INDEX);
+                break;
 
-        /*
-         * After we've spelled out our SQLite table creation statement above, we actually execute
-         * that SQL with the execSQL method of our SQLite database object.
-         */
-        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+            default:
+                throw new IllegalStateException("No migration to database version " + version);
+        }
     }
 
     /**
-     * This database is only a cache for online data, so its upgrade policy is simply to discard
-     * the data and call through to onCreate to recreate the table. Note that this only fires if
-     * you change the version number for your database (in our case, DATABASE_VERSION). It does NOT
-     * depend on the version number for your application found in your app/build.gradle file. If
-     * you want to update the schema without wiping data, commenting out the current body of this
-     * method should be your top priority before modifying this method.
+     * Version 4 stores the forecasts of more than one location. Every row we already have was
+     * synced for the location currently in the user's preferences, so we store that location and
+     * copy the weather table into its new schema under it.
+     * <p>
+     * SQLite can't add a column to a UNIQUE constraint in place, so the old table is renamed,
+     * copied into a new one and dropped. Note that this uses the current CREATE TABLE statements,
+     * which is only correct for as long as they still describe version 4.
      *
      * @param sqLiteDatabase Database that is being upgraded
-     * @param oldVersion     The old database version
-     * @param newVersion     The new database version
      */
-    @Override
-    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
-        onCreate(sqLiteDatabase);
+    private void migrateToMultipleLocations(SQLiteDatabase sqLiteDatabase) {
+        final String oldWeatherTable = WeatherEntry.TABLE_NAME + "_v3";
+
+        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
+
+        ContentValues preferredLocation = new ContentValues();
+        preferredLocation.put(LocationEntry.COLUMN_LOCATION_SETTING,
+                SunshinePreferences.getPreferredWeatherLocation(mContext));
+        long locationId = sqLiteDatabase.insert(LocationEntry.TABLE_NAME, null, preferredLocation);
+
+        sqLiteDatabase.execSQL(
+                "ALTER TABLE " + WeatherEntry.TABLE_NAME + " RENAME TO " + oldWeatherTable);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+
+        final String copiedColumns = WeatherEntry._ID + ", "
+                + WeatherEntry.COLUMN_DATE + ", "
+                + WeatherEntry.COLUMN_WEATHER_ID + ", "
+                + WeatherEntry.COLUMN_MIN_TEMP + ", "
+                + WeatherEntry.COLUMN_MAX_TEMP + ", "
+                + WeatherEntry.COLUMN_HUMIDITY + ", "
+                + WeatherEntry.COLUMN_PRESSURE + ", "
+                + WeatherEntry.COLUMN_WIND_SPEED + ", "
+                + WeatherEntry.COLUMN_DEGREES;
+
+        sqLiteDatabase.execSQL(
+                "INSERT INTO " + WeatherEntry.TABLE_NAME
+                        + " (" + WeatherEntry.COLUMN_LOC_KEY + ", " + copiedColumns + ")"
+                        + " SELECT " + locationId + ", " + copiedColumns
+                        + " FROM " + oldWeatherTable);
+
+        sqLiteDatabase.execSQL("DROP TABLE " + oldWeatherTable);
     }
-}
\ No newline at end of file
+}
@@ -20,12 +20,23 @@ import android.content.ContentProvider;
 import android.content.ContentValues;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.Parcelable;
 import android.support.annotation.NonNull;
+import android.text.TextUtils;
 
+import com.example.android.sunshine.R;
+import com.example.android.sunshine.sync.SyncMetrics;
 import com.example.android.sunshine.utilities.SunshineDateUtils;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
 /**
  * This class serves as the ContentProvider for all of Sunshine's data. This class allows us to
  * bulkInsert data, query data, and delete data.
@@ -45,6 +56,9 @@ public class WeatherProvider extends ContentProvider {
      */
     public static final int CODE_WEATHER = 100;
     public static final int CODE_WEATHER_WITH_DATE = 101;
+    public static final int CODE_WEATHER_WITH_LOCATION = 102;
+    public static final int CODE_WEATHER_WITH_LOCATION_AND_DATE = 103;
+    public static final int CODE_LOCATION = 200;
 
     /*
      * The URI Matcher used by this content provider. The leading "s" in this variable name
@@ -52,11 +66,98 @@ public class WeatherProvider extends ContentProvider {
      * common convention in Android programming.
      */
     private static final UriMatcher sUriMatcher = buildUriMatcher();
+
+    /*
+     * Restricts a query on the weather table to the rows of a single location, given its location
+     * setting as the selection argument. The location setting is looked up through the UNIQUE
+     * index of the location table, and the weather rows through the indexes of the weather
+     * table, which all start with the location. Package-private so that tests can run our
+     * queries through EXPLAIN QUERY PLAN.
+     */
+    static final String SQL_SELECT_LOCATION_SETTING =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = (SELECT "
+                    + WeatherContract.LocationEntry._ID
+                    + " FROM " + WeatherContract.LocationEntry.TABLE_NAME
+                    + " WHERE " + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?)";
+
+    /*
+     * The selections of the rest of our hot queries. SQLiteDatabase keeps a cache of compiled
+     * statements for each connection, keyed by their SQL. Keeping these strings constant, with
+     * every value bound as an argument, means each of them is compiled once per connection and
+     * then reused. Any value written into the SQL itself would make a new statement to compile.
+     */
+    private static final String SQL_SELECT_DATE =
+            WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
+
+    private static final String SQL_SELECT_LOCATION_SETTING_AND_DATE =
+            SQL_SELECT_LOCATION_SETTING + " AND " + SQL_SELECT_DATE;
+
+    private static final String SQL_SELECT_LOCATION_ID =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? ";
+
+    private static final String SQL_SELECT_LOCATION_ID_AND_DATE =
+            SQL_SELECT_LOCATION_ID + " AND " + SQL_SELECT_DATE;
+
+    private static final String SQL_SELECT_LOCATION_BY_SETTING =
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
+
+    /*
+     * Expired weather is deleted this many rows at a time, each batch in its own short
+     * transaction, so that pruning never holds the write lock long enough to stall a sync.
+     */
+    private static final int PRUNE_BATCH_SIZE = 500;
+
+    /* Selects one batch of the weather from before the date bound as the selection argument */
+    private static final String SQL_SELECT_EXPIRED_BATCH =
+            WeatherContract.WeatherEntry._ID + " IN (SELECT "
+                    + WeatherContract.WeatherEntry._ID
+                    + " FROM " + WeatherContract.WeatherEntry.TABLE_NAME
+                    + " WHERE " + WeatherContract.WeatherEntry.COLUMN_DATE + " < ?"
+                    + " LIMIT " + PRUNE_BATCH_SIZE + ")";
+
+    /* Selects the locations that no longer have any weather stored for them */
+    private static final String SQL_SELECT_UNUSED_LOCATIONS =
+            WeatherContract.LocationEntry._ID + " NOT IN (SELECT "
+                    + WeatherContract.WeatherEntry.COLUMN_LOC_KEY
+                    + " FROM " + WeatherContract.WeatherEntry.TABLE_NAME + ")";
+
+    /* The value PRAGMA auto_vacuum reports for incremental auto-vacuum */
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    /*
+     * The columns of a forecast row, in the order they are bound to SQL_INSERT_WEATHER below.
+     * Rows are replaced on a conflicting location and date by the UNIQUE constraint declared in
+     * WeatherDbHelper, exactly as they are when inserted through SQLiteDatabase#insert.
+     */
+    private static final String[] INSERT_WEATHER_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES
+    };
+
+    private static final String SQL_INSERT_WEATHER =
+            "INSERT INTO " + WeatherContract.WeatherEntry.TABLE_NAME
+                    + " (" + TextUtils.join(", ", INSERT_WEATHER_COLUMNS) + ")"
+                    + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
     private WeatherDbHelper mOpenHelper;
 
+    /*
+     * The results of recent weather queries. Every write below that commits a change to the
+     * weather table goes through notifyWeatherChanged, which invalidates this cache first.
+     */
+    private final ForecastCache mForecastCache = new ForecastCache();
+
     /**
-     * Creates the UriMatcher that will match each URI to the CODE_WEATHER and
-     * CODE_WEATHER_WITH_DATE constants defined above.
+     * Creates the UriMatcher that will match each URI to the CODE_WEATHER, CODE_WEATHER_WITH_DATE,
+     * CODE_WEATHER_WITH_LOCATION, CODE_WEATHER_WITH_LOCATION_AND_DATE and CODE_LOCATION constants
+     * defined above.
      * <p>
      * It's possible you might be thinking, "Why create a UriMatcher when you can use regular
      * expressions instead? After all, we really just need to match some patterns, and we can
@@ -68,7 +169,7 @@ public class WeatherProvider extends ContentProvider {
      * been tested and proven, you should almost always use it unless there is a compelling
      * reason not to.
      *
-     * @return A UriMatcher that correctly matches the constants for CODE_WEATHER and CODE_WEATHER_WITH_DATE
+     * @return A UriMatcher that correctly matches the CODE_* constants defined above
      */
     public static UriMatcher buildUriMatcher() {
 
@@ -96,6 +197,26 @@ public class WeatherProvider extends ContentProvider {
          */
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/#", CODE_WEATHER_WITH_DATE);
 
+        /*
+         * This URI would look something like content://com.example.android.sunshine/weather/location/94043,USA
+         * The "/*" signifies to the UriMatcher that if "weather/location" is followed by ANY text,
+         * that it should return the CODE_WEATHER_WITH_LOCATION code
+         */
+        matcher.addURI(authority,
+                WeatherContract.PATH_WEATHER + "/" + WeatherContract.PATH_LOCATION + "/*",
+                CODE_WEATHER_WITH_LOCATION);
+
+        /*
+         * This URI would look something like
+         * content://com.example.android.sunshine/weather/location/94043,USA/1472214172
+         */
+        matcher.addURI(authority,
+                WeatherContract.PATH_WEATHER + "/" + WeatherContract.PATH_LOCATION + "/*/#",
+                CODE_WEATHER_WITH_LOCATION_AND_DATE);
+
+        /* This URI is content://com.example.android.sunshine/location/ */
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION, CODE_LOCATION);
+
         return matcher;
     }
 
@@ -132,6 +253,9 @@ public class WeatherProvider extends ContentProvider {
      * implement bulkInsert. In a normal ContentProvider's implementation, you will probably want
      * to provide proper functionality for the insert method as well.
      *
+     * Rows inserted at a location's URI belong to that location. Rows inserted at CONTENT_URI
+     * that don't say which location they belong to belong to the user's preferred location.
+     *
      * @param uri    The content:// URI of the insertion request.
      * @param values An array of sets of column_name/value pairs to add to the database.
      *               This must not be {@code null}.
@@ -145,28 +269,25 @@ public class WeatherProvider extends ContentProvider {
         switch (sUriMatcher.match(uri)) {
 
             case CODE_WEATHER:
+            case CODE_WEATHER_WITH_LOCATION:
+                boolean hasLocationInUri = sUriMatcher.match(uri) == CODE_WEATHER_WITH_LOCATION;
+                String locationSetting = hasLocationInUri
+                        ? getLocationSettingFromUri(uri)
+                        : SunshinePreferences.getPreferredWeatherLocation(getContext());
+
                 db.beginTransaction();
-                int rowsInserted = 0;
+                int rowsInserted;
                 try {
-                    for (ContentValues value : values) {
-                        long weatherDate =
-                                value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
-                        if (!SunshineDateUtils.isDateNormalized(weatherDate)) {
-                            throw new IllegalArgumentException("Date must be normalized to insert");
-                        }
-
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            rowsInserted++;
-                        }
-                    }
+                    long locationId = getOrInsertLocationId(db, locationSetting);
+                    rowsInserted = insertForecast(db,
+                            withLocationId(values, locationId, hasLocationInUri));
                     db.setTransactionSuccessful();
                 } finally {
                     db.endTransaction();
                 }
 
                 if (rowsInserted > 0) {
-                    getContext().getContentResolver().notifyChange(uri, null);
+                    notifyWeatherChanged(uri);
                 }
 
                 return rowsInserted;
@@ -176,6 +297,477 @@ public class WeatherProvider extends ContentProvider {
         }
     }
 
+    /**
+     * Inserts each day of a forecast into the weather table. This method doesn't manage a
+     * transaction on its own; callers are expected to wrap it in one so that all of the inserts
+     * are committed together.
+     * <p>
+     * SQLiteDatabase#insert builds a new INSERT statement and a new array of bind arguments for
+     * every row it inserts. Since every row of a forecast has exactly the same columns, we
+     * compile {@link #SQL_INSERT_WEATHER} once and bind each day's values to it instead. Rows that
+     * don't have exactly those columns fall back to SQLiteDatabase#insert.
+     *
+     * @param db     The writable database, with a transaction already begun
+     * @param values The forecast, one set of ContentValues per day
+     * @return The number of rows that were inserted
+     */
+    static int insertForecast(SQLiteDatabase db, ContentValues[] values) {
+        int rowsInserted = 0;
+
+        SQLiteStatement insertStatement = db.compileStatement(SQL_INSERT_WEATHER);
+        try {
+            for (ContentValues value : values) {
+                long weatherDate = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+                if (!SunshineDateUtils.isDateNormalized(weatherDate)) {
+                    throw new IllegalArgumentException("Date must be normalized to insert");
+                }
+
+                if (!canBindToInsertStatement(value)) {
+                    long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
+                    if (_id != -1) {
+                        rowsInserted++;
+                    }
+                    continue;
+                }
+
+                /* The indices here match the order of the columns in SQL_INSERT_WEATHER */
+                insertStatement.bindLong(1,
+                        value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY));
+                insertStatement.bindLong(2, weatherDate);
+                insertStatement.bindLong(3,
+                        value.getAsLong(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID));
+                insertStatement.bindDouble(4,
+                        value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP));
+                insertStatement.bindDouble(5,
+                        value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP));
+                insertStatement.bindDouble(6,
+                        value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_HUMIDITY));
+                insertStatement.bindDouble(7,
+                        value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_PRESSURE));
+                insertStatement.bindDouble(8,
+                        value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED));
+                insertStatement.bindDouble(9,
+                        value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_DEGREES));
+
+                try {
+                    if (insertStatement.executeInsert() != -1) {
+                        rowsInserted++;
+                    }
+                } catch (SQLiteConstraintException e) {
+                    /* SQLiteDatabase#insert returns -1 for rows that violate a constraint. So do we. */
+                }
+            }
+        } finally {
+            insertStatement.close();
+        }
+
+        return rowsInserted;
+    }
+
+    /**
+     * Checks whether a day of forecast can be bound to {@link #SQL_INSERT_WEATHER}, which is the
+     * case when it holds a number for every one of the statement's columns and nothing else.
+     *
+     * @param value The ContentValues for a single day
+     * @return true if the values can be inserted using the compiled statement
+     */
+    private static boolean canBindToInsertStatement(ContentValues value) {
+        if (value.size() != INSERT_WEATHER_COLUMNS.length) return false;
+
+        for (String column : INSERT_WEATHER_COLUMNS) {
+            if (!(value.get(column) instanceof Number)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Looks up the _ID of a location setting in the location table, storing the location setting
+     * first if this is the first forecast we write for it. Callers are expected to have a
+     * transaction begun, so that the location and its forecast are committed together.
+     *
+     * @param db              The writable database
+     * @param locationSetting The location setting, as stored in the user's preferences
+     * @return The _ID of the location setting's row in the location table
+     */
+    private static long getOrInsertLocationId(SQLiteDatabase db, String locationSetting) {
+        Cursor locationCursor = db.query(
+                WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry._ID},
+                SQL_SELECT_LOCATION_BY_SETTING,
+                new String[]{locationSetting},
+                null,
+                null,
+                null);
+
+        try {
+            if (locationCursor.moveToFirst()) {
+                return locationCursor.getLong(0);
+            }
+        } finally {
+            locationCursor.close();
+        }
+
+        ContentValues location = new ContentValues();
+        location.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        return db.insertOrThrow(WeatherContract.LocationEntry.TABLE_NAME, null, location);
+    }
+
+    /**
+     * Returns copies of a forecast's values that belong to the given location. We copy them
+     * rather than changing them in place, as the caller may still be holding on to them.
+     *
+     * @param values     The forecast, one set of ContentValues per day
+     * @param locationId The _ID of the location the forecast belongs to
+     * @param overwrite  true to replace a location already in the values, false to only set the
+     *                   location of the days that don't have one
+     * @return The forecast, with the location of every day set
+     */
+    private static ContentValues[] withLocationId(ContentValues[] values, long locationId,
+                                                  boolean overwrite) {
+        ContentValues[] located = new ContentValues[values.length];
+        for (int i = 0; i < values.length; i++) {
+            located[i] = new ContentValues(values[i]);
+            if (overwrite || !located[i].containsKey(WeatherContract.WeatherEntry.COLUMN_LOC_KEY)) {
+                located[i].put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+            }
+        }
+        return located;
+    }
+
+    /**
+     * Pulls the location setting out of a URI built by
+     * {@link WeatherContract.WeatherEntry#buildWeatherUriWithLocation(String)}, which looks
+     * something like content://com.example.android.sunshine/weather/location/94043,USA/1472214172
+     *
+     * @param uri A URI matching CODE_WEATHER_WITH_LOCATION or CODE_WEATHER_WITH_LOCATION_AND_DATE
+     * @return The location setting, decoded
+     */
+    private static String getLocationSettingFromUri(Uri uri) {
+        return uri.getPathSegments().get(2);
+    }
+
+    /**
+     * Handles the methods that Sunshine exposes through {@link android.content.ContentResolver#call}.
+     * These are operations on the whole forecast that we want to run inside a single transaction
+     * and that should only notify observers once, no matter how many rows were touched.
+     *
+     * @param method One of the METHOD_* constants defined in {@link WeatherContract}
+     * @param arg    The location setting the forecast belongs to, or null for the user's
+     *               preferred location
+     * @param extras Arguments for the method, see the method constants in {@link WeatherContract}
+     * @return A Bundle containing the result of the method
+     */
+    @Override
+    public Bundle call(@NonNull String method, String arg, Bundle extras) {
+
+        /* Pruning covers every location, and its arg is the number of days to keep instead */
+        if (WeatherContract.METHOD_PRUNE_FORECAST.equals(method)) {
+            int retentionDays = arg != null
+                    ? Integer.parseInt(arg)
+                    : getContext().getResources().getInteger(R.integer.forecast_retention_days);
+            return pruneForecast(retentionDays);
+        }
+
+        String locationSetting = arg != null
+                ? arg
+                : SunshinePreferences.getPreferredWeatherLocation(getContext());
+
+        /* Only the cursors showing this location's forecast need to know about the write */
+        Uri locationWeatherUri =
+                WeatherContract.WeatherEntry.buildWeatherUriWithLocation(locationSetting);
+
+        switch (method) {
+
+            case WeatherContract.METHOD_UPSERT_FORECAST: {
+                Bundle result = upsertForecast(locationSetting, getForecastValues(extras));
+
+                /*
+                 * Unlike a delete followed by a bulkInsert, observers only hear about this sync
+                 * once, and only if a day's forecast actually changed.
+                 */
+                if (result.getInt(WeatherContract.EXTRA_ROWS_WRITTEN) > 0) {
+                    notifyWeatherChanged(locationWeatherUri);
+                }
+                return result;
+            }
+
+            case WeatherContract.METHOD_REPLACE_FORECAST: {
+                int rowsWritten = replaceForecast(locationSetting, getForecastValues(extras));
+
+                /*
+                 * The old rows are always deleted, so there is always something to tell our
+                 * observers about. Doing it once, after the transaction has been committed,
+                 * means loaders only requery a single time and never see an empty table.
+                 */
+                notifyWeatherChanged(locationWeatherUri);
+
+                Bundle result = new Bundle();
+                result.putInt(WeatherContract.EXTRA_ROWS_WRITTEN, rowsWritten);
+                return result;
+            }
+
+            default:
+                return super.call(method, arg, extras);
+        }
+    }
+
+    /**
+     * Writes a location's forecast into the weather table, skipping the days whose stored values
+     * are identical to the incoming ones. Days that aren't stored yet are inserted and days whose
+     * values changed are updated in place. Everything happens inside one transaction.
+     *
+     * @param locationSetting The location setting the forecast belongs to
+     * @param values          The forecast, one set of ContentValues per day
+     * @return A Bundle holding the number of rows that were inserted or updated, and how many of
+     * those were updated
+     */
+    private Bundle upsertForecast(String locationSetting, ContentValues[] values) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        int rowsInserted = 0;
+        int rowsUpdated = 0;
+        db.beginTransaction();
+        try {
+            long locationId = getOrInsertLocationId(db, locationSetting);
+            String locationIdString = Long.toString(locationId);
+
+            for (ContentValues value : withLocationId(values, locationId, true)) {
+                long weatherDate = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+                if (!SunshineDateUtils.isDateNormalized(weatherDate)) {
+                    throw new IllegalArgumentException("Date must be normalized to insert");
+                }
+
+                String[] selectionArguments =
+                        new String[]{locationIdString, Long.toString(weatherDate)};
+
+                /*
+                 * We always ask for the same columns, rather than only the ones in this day's
+                 * values, so that this query is compiled once and reused for every day.
+                 */
+                Cursor storedDay = db.query(
+                        WeatherContract.WeatherEntry.TABLE_NAME,
+                        INSERT_WEATHER_COLUMNS,
+                        SQL_SELECT_LOCATION_ID_AND_DATE,
+                        selectionArguments,
+                        null,
+                        null,
+                        null);
+
+                try {
+                    if (!storedDay.moveToFirst()) {
+                        if (db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value) != -1) {
+                            rowsInserted++;
+                        }
+                    } else if (!hasSameValues(storedDay, value)) {
+                        rowsUpdated += db.update(
+                                WeatherContract.WeatherEntry.TABLE_NAME,
+                                value,
+                                SQL_SELECT_LOCATION_ID_AND_DATE,
+                                selectionArguments);
+                    }
+                } finally {
+                    storedDay.close();
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        Bundle result = new Bundle();
+        result.putInt(WeatherContract.EXTRA_ROWS_WRITTEN, rowsInserted + rowsUpdated);
+        result.putInt(WeatherContract.EXTRA_ROWS_UPDATED, rowsUpdated);
+        return result;
+    }
+
+    /**
+     * Deletes every row stored for a location and inserts a new forecast in their place. Both
+     * happen inside the same transaction, so the location's forecast is never observed empty and
+     * the whole operation is committed (and synced to disk) once. The forecasts of other
+     * locations are left alone.
+     *
+     * @param locationSetting The location setting the forecast belongs to
+     * @param values          The forecast, one set of ContentValues per day
+     * @return The number of rows that were inserted
+     */
+    private int replaceForecast(String locationSetting, ContentValues[] values) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+
+        int rowsInserted;
+        db.beginTransaction();
+        try {
+            long locationId = getOrInsertLocationId(db, locationSetting);
+            db.delete(WeatherContract.WeatherEntry.TABLE_NAME,
+                    SQL_SELECT_LOCATION_ID,
+                    new String[]{Long.toString(locationId)});
+            rowsInserted = insertForecast(db, withLocationId(values, locationId, true));
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        return rowsInserted;
+    }
+
+    /**
+     * Deletes the weather of every location from before the retention horizon, along with the
+     * locations that have no weather left afterwards, and then gives the pages those rows took up
+     * back to the file system.
+     * <p>
+     * Rows are deleted in batches of {@link #PRUNE_BATCH_SIZE}, each in its own transaction, so a
+     * sync that wants to write in the meantime only waits for a single batch. Deleting rows only
+     * puts their pages on SQLite's freelist, though; the file stays the same size. Databases
+     * created with incremental auto-vacuum (see WeatherDbHelper#onConfigure) can hand those pages
+     * back cheaply with PRAGMA incremental_vacuum. Databases created before that have to be
+     * rebuilt by a full VACUUM once to switch over, which we try the first time they are pruned,
+     * and never again.
+     *
+     * @param retentionDays The number of days before today whose weather is kept
+     * @return A Bundle holding the number of rows deleted and the number of pages given back
+     */
+    private Bundle pruneForecast(int retentionDays) {
+        if (retentionDays < 0) {
+            throw new IllegalArgumentException("Retention must not be negative: " + retentionDays);
+        }
+
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+
+        long today = SunshineDateUtils.normalizeDate(System.currentTimeMillis());
+        long cutoff = today - retentionDays * SunshineDateUtils.DAY_IN_MILLIS;
+        String[] selectionArguments = new String[]{Long.toString(cutoff)};
+
+        int rowsDeleted = 0;
+        int batchDeleted;
+        do {
+            db.beginTransaction();
+            try {
+                batchDeleted = db.delete(WeatherContract.WeatherEntry.TABLE_NAME,
+                        SQL_SELECT_EXPIRED_BATCH,
+                        selectionArguments);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            rowsDeleted += batchDeleted;
+        } while (batchDeleted == PRUNE_BATCH_SIZE);
+
+        db.delete(WeatherContract.LocationEntry.TABLE_NAME, SQL_SELECT_UNUSED_LOCATIONS, null);
+
+        /* Neither VACUUM nor incremental_vacuum may run inside a transaction */
+        long freePagesBefore = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+        if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null)
+                != AUTO_VACUUM_INCREMENTAL) {
+            /*
+             * The conversion rewrites the whole file. If it didn't take, trying again on every
+             * sync would rewrite it every time, so the freed pages are simply left on the
+             * freelist for later inserts to reuse instead.
+             */
+            if (!SunshinePreferences.isAutoVacuumConversionAttempted(getContext())) {
+                SunshinePreferences.saveAutoVacuumConversionAttempted(getContext());
+                db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+                db.execSQL("VACUUM");
+            }
+        } else if (freePagesBefore > 0) {
+            /*
+             * incremental_vacuum returns a row for every page it frees, and only frees the next
+             * page as each row is stepped to, so execSQL would stop after the first one (or
+             * refuse to run it at all). Step through every row instead.
+             */
+            Cursor vacuum = db.rawQuery("PRAGMA incremental_vacuum", null);
+            try {
+                while (vacuum.moveToNext()) {
+                    /* Each row is one page given back */
+                }
+            } finally {
+                vacuum.close();
+            }
+        }
+        long freePagesAfter = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+
+        if (rowsDeleted > 0) {
+            notifyWeatherChanged(WeatherContract.WeatherEntry.CONTENT_URI);
+        }
+
+        Bundle result = new Bundle();
+        result.putInt(WeatherContract.EXTRA_ROWS_DELETED, rowsDeleted);
+        result.putLong(WeatherContract.EXTRA_PAGES_RECLAIMED,
+                Math.max(0, freePagesBefore - freePagesAfter));
+        return result;
+    }
+
+    /**
+     * Tells observers of a URI that the weather stored under it has changed. Cached query results
+     * are dropped first, so that the queries observers make in response read the new rows. This
+     * must only be called once the write has been committed; a query that read the old rows in
+     * the meantime would otherwise put them right back into the cache.
+     *
+     * @param uri The URI whose weather changed
+     */
+    private void notifyWeatherChanged(Uri uri) {
+        mForecastCache.invalidate();
+        getContext().getContentResolver().notifyChange(uri, null);
+    }
+
+    /**
+     * Drops every cached query result. Only tests that write to the database directly, rather
+     * than through this provider, need to call this.
+     */
+    void invalidateForecastCache() {
+        mForecastCache.invalidate();
+    }
+
+    /**
+     * Compares the row the cursor is currently positioned at against a set of ContentValues.
+     * All of our weather columns are numbers, so we compare them as doubles. REAL columns store
+     * doubles exactly, which means two equal forecasts always compare equal here.
+     *
+     * @param cursor A cursor positioned at the stored row
+     * @param values The incoming values for the same day
+     * @return true if every column in values matches the stored row, false otherwise
+     */
+    private static boolean hasSameValues(Cursor cursor, ContentValues values) {
+        for (String column : values.keySet()) {
+            int index = cursor.getColumnIndex(column);
+            if (index == -1) return false;
+
+            Object newValue = values.get(column);
+            if (newValue == null || cursor.isNull(index)) {
+                if (newValue != null || !cursor.isNull(index)) return false;
+            } else if (newValue instanceof Number) {
+                double storedValue = cursor.getDouble(index);
+                if (Double.compare(storedValue, ((Number) newValue).doubleValue()) != 0) {
+                    return false;
+                }
+            } else if (!newValue.toString().equals(cursor.getString(index))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Pulls the forecast that was passed to {@link #call(String, String, Bundle)} out of its
+     * extras. Bundles can't hold a ContentValues[] directly, so callers store it as a Parcelable
+     * array under {@link WeatherContract#EXTRA_FORECAST_VALUES}.
+     *
+     * @param extras The extras passed to call
+     * @return The forecast as an array of ContentValues
+     */
+    private static ContentValues[] getForecastValues(Bundle extras) {
+        Parcelable[] parcelables = extras == null
+                ? null
+                : extras.getParcelableArray(WeatherContract.EXTRA_FORECAST_VALUES);
+
+        if (parcelables == null) {
+            throw new IllegalArgumentException("Forecast values must be passed in the extras");
+        }
+
+        ContentValues[] values = new ContentValues[parcelables.length];
+        for (int i = 0; i < parcelables.length; i++) {
+            values[i] = (ContentValues) parcelables[i];
+        }
+        return values;
+    }
+
     /**
      * Handles query requests from clients. We will use this method in Sunshine to query for all
      * of our weather data as well as to query for the weather on a particular day.
@@ -195,13 +787,36 @@ public class WeatherProvider extends ContentProvider {
     public Cursor query(@NonNull Uri uri, String[] projection, String selection,
                         String[] selectionArgs, String sortOrder) {
 
+        int match = sUriMatcher.match(uri);
+
+        /*
+         * Weather only changes when a sync writes to this provider, so the same query made by a
+         * loader after a rotation, or when coming back from DetailActivity, is answered from
+         * memory instead of from disk. The location table is small and rarely queried, so it
+         * isn't cached.
+         */
+        String cacheKey = null;
+        long cacheGeneration = 0;
+        if (match != CODE_LOCATION) {
+            cacheKey = ForecastCache.buildKey(uri, projection, selection, selectionArgs, sortOrder);
+
+            Cursor cachedCursor = mForecastCache.get(cacheKey);
+            if (cachedCursor != null) {
+                cachedCursor.setNotificationUri(getContext().getContentResolver(), uri);
+                return cachedCursor;
+            }
+
+            /* Read before querying, so a write that commits during the query isn't missed */
+            cacheGeneration = mForecastCache.getGeneration();
+        }
+
         Cursor cursor;
 
         /*
          * Here's the switch statement that, given a URI, will determine what kind of request is
          * being made and query the database accordingly.
          */
-        switch (sUriMatcher.match(uri)) {
+        switch (match) {
 
             /*
              * When sUriMatcher's match method is called with a URI that looks something like this
@@ -213,8 +828,9 @@ public class WeatherProvider extends ContentProvider {
              * milliseconds and is at the very end of the URI (1472214172) and can be accessed
              * programmatically using Uri's getLastPathSegment method.
              *
-             * In this case, we want to return a cursor that contains one row of weather data for
-             * a particular date.
+             * In this case, we want to return a cursor that contains the weather data for a
+             * particular date. That is one row for each location we have a forecast for, so
+             * callers that only want one location should use CODE_WEATHER_WITH_LOCATION_AND_DATE.
              */
             case CODE_WEATHER_WITH_DATE: {
 
@@ -252,7 +868,7 @@ public class WeatherProvider extends ContentProvider {
                          * within the selectionArguments array will be inserted into the
                          * selection statement by SQLite under the hood.
                          */
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ",
+                        SQL_SELECT_DATE,
                         selectionArguments,
                         null,
                         null,
@@ -270,7 +886,7 @@ public class WeatherProvider extends ContentProvider {
              * to return all of the weather in our weather table.
              *
              * In this case, we want to return a cursor that contains every row of weather data
-             * in our weather table.
+             * in our weather table, for every location.
              */
             case CODE_WEATHER: {
                 cursor = mOpenHelper.getReadableDatabase().query(
@@ -285,10 +901,77 @@ public class WeatherProvider extends ContentProvider {
                 break;
             }
 
+            /*
+             * When sUriMatcher's match method is called with a URI that looks something like this
+             *
+             *      content://com.example.android.sunshine/weather/location/94043,USA
+             *
+             * we return the weather stored for that location, further filtered by the selection
+             * that was passed in. The location setting is bound as the first selection argument,
+             * ahead of any arguments the caller passed.
+             */
+            case CODE_WEATHER_WITH_LOCATION: {
+                cursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.WeatherEntry.TABLE_NAME,
+                        projection,
+                        DatabaseUtils.concatenateWhere(SQL_SELECT_LOCATION_SETTING, selection),
+                        DatabaseUtils.appendSelectionArgs(
+                                new String[]{getLocationSettingFromUri(uri)},
+                                selectionArgs),
+                        null,
+                        null,
+                        sortOrder);
+
+                break;
+            }
+
+            /*
+             * When sUriMatcher's match method is called with a URI that looks something like this
+             *
+             *      content://com.example.android.sunshine/weather/location/94043,USA/1472214172
+             *
+             * we return the one row of weather stored for that location on that date.
+             */
+            case CODE_WEATHER_WITH_LOCATION_AND_DATE: {
+                String[] selectionArguments = new String[]{
+                        getLocationSettingFromUri(uri),
+                        uri.getLastPathSegment()
+                };
+
+                cursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.WeatherEntry.TABLE_NAME,
+                        projection,
+                        SQL_SELECT_LOCATION_SETTING_AND_DATE,
+                        selectionArguments,
+                        null,
+                        null,
+                        sortOrder);
+
+                break;
+            }
+
+            /* content://com.example.android.sunshine/location/ returns every stored location */
+            case CODE_LOCATION: {
+                cursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.LocationEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder);
+
+                break;
+            }
+
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
 
+        if (cacheKey != null) {
+            mForecastCache.put(cacheKey, cacheGeneration, cursor);
+        }
+
         cursor.setNotificationUri(getContext().getContentResolver(), uri);
         return cursor;
     }
@@ -326,13 +1009,23 @@ public class WeatherProvider extends ContentProvider {
 
                 break;
 
+            case CODE_WEATHER_WITH_LOCATION:
+                numRowsDeleted = mOpenHelper.getWritableDatabase().delete(
+                        WeatherContract.WeatherEntry.TABLE_NAME,
+                        DatabaseUtils.concatenateWhere(SQL_SELECT_LOCATION_SETTING, selection),
+                        DatabaseUtils.appendSelectionArgs(
+                                new String[]{getLocationSettingFromUri(uri)},
+                                selectionArgs));
+
+                break;
+
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
 
         /* If we actually deleted any rows, notify that a change has occurred to this URI */
         if (numRowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyWeatherChanged(uri);
         }
 
         return numRowsDeleted;
@@ -375,6 +1068,15 @@ public class WeatherProvider extends ContentProvider {
         throw new RuntimeException("We are not implementing update in Sunshine");
     }
 
+    /**
+     * Prints how long the stages of the last few syncs took, when this provider is dumped with
+     * dumpsys. See {@link SyncMetrics} for the command.
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        SyncMetrics.getInstance().dump(writer);
+    }
+
     /**
      * You do not need to call this method. This is a method specifically to assist the testing
      * framework in running smoothly. You can read more at:
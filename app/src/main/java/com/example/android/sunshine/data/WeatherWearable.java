@@ -40,23 +40,32 @@ public class WeatherWearable {
          */
         cursor.moveToPosition(0);
 
+        return getWeatherWearable(context,
+                cursor.getInt(cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID)),
+                cursor.getDouble(cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP)),
+                cursor.getDouble(cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP)));
+    }
+
+    /**
+     * Returns the {@link WeatherWearable} object for today's weather, read from anything other
+     * than a Cursor.
+     * @param context context in which this method was called
+     * @param weatherId today's weather condition id
+     * @param maxTemp today's high temperature, in degrees celsius
+     * @param minTemp today's low temperature, in degrees celsius
+     */
+    public static WeatherWearable getWeatherWearable(Context context, int weatherId,
+                                                     double maxTemp, double minTemp) {
         WeatherWearable weatherWearable = new WeatherWearable();
-        int weatherId = cursor.getInt(cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID));
         /*
         Use SunshineWeatherUtils.formatTemperature instead of SunshineWeatherUtils.formatHighLows because
         in Imperial mode, formatHighLows rounds the value whereas in the app's adapter, formatTemperature
         is used which is more accurate. Hence there is a difference in value shown in phone and the wearable.
         Therefore use formatTemperature itself.
          */
-        String maxTemperature = SunshineWeatherUtils.formatTemperature(
-                context,
-                cursor.getDouble(cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP))
-        );
+        String maxTemperature = SunshineWeatherUtils.formatTemperature(context, maxTemp);
         maxTemperature = maxTemperature.trim();
-        String minTemperature = SunshineWeatherUtils.formatTemperature(
-                context,
-                cursor.getDouble(cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP))
-        );
+        String minTemperature = SunshineWeatherUtils.formatTemperature(context, minTemp);
         minTemperature = minTemperature.trim();
         String temperatureRange = maxTemperature + " / " + minTemperature;
 
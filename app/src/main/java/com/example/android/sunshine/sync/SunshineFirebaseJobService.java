@@ -16,17 +16,67 @@
 package com.example.android.sunshine.sync;
 
 import android.content.Context;
-import android.os.AsyncTask;
+import android.os.Process;
+import android.util.Log;
 
 import com.firebase.jobdispatcher.Job;
 import com.firebase.jobdispatcher.JobParameters;
 import com.firebase.jobdispatcher.JobService;
 import com.firebase.jobdispatcher.RetryStrategy;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
 
 public class SunshineFirebaseJobService extends JobService {
 
-    private AsyncTask<Void, Void, Void> mFetchWeatherTask;
+    private static final String TAG = SunshineFirebaseJobService.class.getSimpleName();
+
+    /*
+     * Syncs run one at a time anyway (see SunshineSyncCoordinator), so a single thread is all we
+     * need. Running them on our own thread rather than in an AsyncTask means a sync never waits
+     * behind unrelated AsyncTasks on the process-wide serial executor, and shows up under its own
+     * name in traces. The queue is small, as the dispatcher won't start the job again while it's
+     * running; anything beyond it is rejected and handed back to the dispatcher.
+     */
+    private static final int SYNC_QUEUE_CAPACITY = 2;
+    private static final long SYNC_THREAD_KEEP_ALIVE_SECONDS = 30;
+
+    private static final ExecutorService sSyncExecutor = createSyncExecutor();
+
+    /* Jobs, across every instance of this service, that the dispatcher hasn't heard back on */
+    private static final AtomicInteger sUnfinishedJobs = new AtomicInteger();
+
+    /*
+     * The periodic job and the retry job both run in this service, and can be running at the
+     * same time, so each job's state is kept under its tag rather than in a field the other job
+     * would overwrite. Only touched on the main thread, or while holding the map's lock.
+     */
+    private final Map<String, RunningJob> mRunningJobs = new HashMap<>();
+
+    /**
+     * A job that was started and hasn't been finished or stopped yet.
+     */
+    private static class RunningJob {
+
+        /*
+         * Whichever of the sync finishing and onStopJob comes first gets to finish the job. The
+         * other finds this already set and does nothing, so the dispatcher hears about the job
+         * exactly once.
+         */
+        final AtomicBoolean finished = new AtomicBoolean(false);
+
+        Future<?> task;
+    }
 
     /**
      * The entry point to your Job. Implementations should offload work to another thread of
@@ -41,22 +91,61 @@ public class SunshineFirebaseJobService extends JobService {
     @Override
     public boolean onStartJob(final JobParameters jobParameters) {
 
-        mFetchWeatherTask = new AsyncTask<Void, Void, Void>(){
+        final RunningJob job = new RunningJob();
+        sUnfinishedJobs.incrementAndGet();
+        synchronized (mRunningJobs) {
+            mRunningJobs.put(jobParameters.getTag(), job);
+        }
+
+        Runnable fetchWeather = new Runnable() {
             @Override
-            protected Void doInBackground(Void... voids) {
+            public void run() {
                 Context context = getApplicationContext();
-                SunshineSyncTask.syncWeather(context);
-                jobFinished(jobParameters, false);
-                return null;
-            }
+                int result;
+                try {
+                    /*
+                     * If a sync of the same location is already running, wait for it rather
+                     * than downloading the forecast a second time.
+                     */
+                    result = SunshineSyncCoordinator.getInstance().syncNow(context, false);
+                } catch (InterruptedException e) {
+                    /*
+                     * onStopJob interrupted our wait, and has already told the dispatcher to
+                     * retry. The sync itself isn't stopped; see onStopJob.
+                     */
+                    return;
+                }
 
-            @Override
-            protected void onPostExecute(Void aVoid) {
-                jobFinished(jobParameters, false);
+                /*
+                 * If the sync failed for a reason that is likely to go away on its own, ask the
+                 * dispatcher to reschedule the job. It backs off exponentially, following the
+                 * RetryStrategy the job was built with in SunshineSyncUtils.
+                 */
+                removeRunningJob(jobParameters.getTag(), job);
+                if (markFinished(job)) {
+                    jobFinished(jobParameters, result == SunshineSyncTask.SYNC_FAILED_TRANSIENT);
+                }
+
+                /*
+                 * Now that this job is no longer running, it can be replaced by one that runs at
+                 * the interval the sync adapted to, if that changed.
+                 */
+                SunshineSyncUtils.applyAdaptedSyncInterval(context);
             }
         };
 
-        mFetchWeatherTask.execute();
+        try {
+            job.task = sSyncExecutor.submit(fetchWeather);
+        } catch (RejectedExecutionException e) {
+            /*
+             * Ask for the job to be retried. We still return true below, as returning false
+             * would report the job as finished a second time.
+             */
+            Log.w(TAG, "Sync queue is full, rescheduling", e);
+            removeRunningJob(jobParameters.getTag(), job);
+            markFinished(job);
+            jobFinished(jobParameters, true);
+        }
         return true;
     }
 
@@ -70,9 +159,82 @@ public class SunshineFirebaseJobService extends JobService {
      */
     @Override
     public boolean onStopJob(JobParameters jobParameters) {
-        if (mFetchWeatherTask != null) {
-            mFetchWeatherTask.cancel(true);
+        RunningJob job;
+        synchronized (mRunningJobs) {
+            job = mRunningJobs.remove(jobParameters.getTag());
+        }
+        if (job == null) return true;
+
+        /* Once the job is stopped, the dispatcher must not hear from the sync about it again */
+        markFinished(job);
+
+        /*
+         * This only interrupts the job's wait for its sync. A sync that has already started is
+         * left to finish, as other requests may be waiting on it through SunshineSyncCoordinator,
+         * and the network timeouts in NetworkUtils bound how long it can take. The retry we ask
+         * for below will find the forecast already up to date if it did.
+         */
+        if (job.task != null) {
+            job.task.cancel(true);
         }
         return true;
     }
-}
\ No newline at end of file
+
+    /**
+     * Returns whether a sync job has been started and not yet finished or stopped. The periodic
+     * job mustn't be rescheduled while one is, as replacing it could stop the job.
+     */
+    static boolean isJobRunning() {
+        return sUnfinishedJobs.get() > 0;
+    }
+
+    /**
+     * Marks a job as finished, if nothing else has yet.
+     *
+     * @return true if the caller is the one that gets to tell the dispatcher
+     */
+    private static boolean markFinished(RunningJob job) {
+        if (job.finished.compareAndSet(false, true)) {
+            sUnfinishedJobs.decrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Forgets a job, unless a newer job with the same tag has replaced it in the meantime.
+     */
+    private void removeRunningJob(String tag, RunningJob job) {
+        synchronized (mRunningJobs) {
+            if (mRunningJobs.get(tag) == job) {
+                mRunningJobs.remove(tag);
+            }
+        }
+    }
+
+    private static ExecutorService createSyncExecutor() {
+        ThreadFactory threadFactory = new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        /* The priority AsyncTask ran syncs at, below the UI thread */
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "SunshineSync");
+            }
+        };
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                1, 1,
+                SYNC_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(SYNC_QUEUE_CAPACITY),
+                threadFactory);
+
+        /* Don't keep an idle thread around between syncs, which are hours apart */
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
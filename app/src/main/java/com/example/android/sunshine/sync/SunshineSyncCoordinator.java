@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.support.annotation.VisibleForTesting;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.example.android.sunshine.data.SunshinePreferences;
+
+/**
+ * Makes sure that however many parts of Sunshine ask for a sync at the same time, the forecast is
+ * only fetched as often as it needs to be.
+ * <p>
+ * Syncs are asked for by SettingsFragment when the location changes, by SunshineSyncUtils when
+ * there is no forecast to show, and by the periodic FirebaseJobDispatcher job. Each of these used
+ * to fetch the forecast on its own, one after the other. Now every request goes through
+ * {@link #enqueue}, and:
+ * <ul>
+ * <li>A request made while a sync for the same location is already running is answered by that
+ * sync, unless it asks to replace the forecast and the running sync doesn't.</li>
+ * <li>Every other request is merged into the single request that is waiting to run next. It
+ * replaces the forecast if any of the requests merged into it asked to.</li>
+ * </ul>
+ * Requests are run by whichever worker thread calls {@link #runPending} or {@link #syncNow}
+ * first. A worker that finishes a sync also runs the request that was queued up behind it, so
+ * nothing that was enqueued is ever left behind.
+ */
+public class SunshineSyncCoordinator {
+
+    private static final String TAG = SunshineSyncCoordinator.class.getSimpleName();
+
+    /**
+     * Runs a single sync. This is SunshineSyncTask, except in tests.
+     */
+    interface Syncer {
+        int sync(Context context, boolean replaceForecast);
+    }
+
+    /**
+     * A sync that was asked for. Callers can wait for it with {@link #await()}.
+     */
+    public static class SyncRequest {
+
+        /* Only changed while the request is waiting, under the coordinator's lock */
+        private String mLocationSetting;
+        private boolean mReplaceForecast;
+
+        private boolean mDone;
+        private int mResult;
+
+        SyncRequest(String locationSetting, boolean replaceForecast) {
+            mLocationSetting = locationSetting;
+            mReplaceForecast = replaceForecast;
+        }
+
+        public synchronized boolean isDone() {
+            return mDone;
+        }
+
+        /**
+         * Waits for the sync that answers this request to finish.
+         *
+         * @return SunshineSyncTask.SYNC_SUCCEEDED, SYNC_FAILED_TRANSIENT or SYNC_FAILED_PERMANENT
+         */
+        public synchronized int await() throws InterruptedException {
+            while (!mDone) {
+                wait();
+            }
+            return mResult;
+        }
+
+        synchronized void finish(int result) {
+            mResult = result;
+            mDone = true;
+            notifyAll();
+        }
+    }
+
+    private static final SunshineSyncCoordinator sInstance =
+            new SunshineSyncCoordinator(new Syncer() {
+                @Override
+                public int sync(Context context, boolean replaceForecast) {
+                    return SunshineSyncTask.syncWeather(context, replaceForecast);
+                }
+            });
+
+    private final Syncer mSyncer;
+
+    /* The request being synced right now, and the one that will be synced once it is done */
+    private SyncRequest mRunning;
+    private SyncRequest mPending;
+
+    @VisibleForTesting
+    SunshineSyncCoordinator(Syncer syncer) {
+        mSyncer = syncer;
+    }
+
+    public static SunshineSyncCoordinator getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Asks for a sync of the user's preferred location, without running it. Call
+     * {@link #runPending} from a worker thread to run it.
+     *
+     * @param context         Used to look up the preferred location
+     * @param replaceForecast true if the stored forecast should be replaced rather than updated
+     * @return The request that will answer this one
+     */
+    public SyncRequest enqueue(Context context, boolean replaceForecast) {
+        return enqueue(SunshinePreferences.getPreferredWeatherLocation(context), replaceForecast);
+    }
+
+    @VisibleForTesting
+    synchronized SyncRequest enqueue(String locationSetting, boolean replaceForecast) {
+        if (mRunning != null
+                && TextUtils.equals(mRunning.mLocationSetting, locationSetting)
+                && (mRunning.mReplaceForecast || !replaceForecast)) {
+            return mRunning;
+        }
+
+        if (mPending == null) {
+            mPending = new SyncRequest(locationSetting, replaceForecast);
+        } else {
+            /*
+             * A sync only ever fetches the location that is preferred at the time it runs, so if
+             * the location changed since the waiting request was made, the waiting request now
+             * stands for the new location. Whoever is waiting for it is answered by that sync.
+             */
+            mPending.mLocationSetting = locationSetting;
+            mPending.mReplaceForecast |= replaceForecast;
+        }
+        return mPending;
+    }
+
+    /**
+     * Runs the request that is waiting, and any request enqueued while it runs, on the calling
+     * thread. If another thread is already running a sync, it will run them instead, and this
+     * returns straight away.
+     *
+     * @param context Passed on to the sync
+     * @return The result of the last sync this thread ran, or SYNC_SUCCEEDED if it ran none
+     */
+    public int runPending(Context context) {
+        int lastResult = SunshineSyncTask.SYNC_SUCCEEDED;
+
+        SyncRequest request;
+        synchronized (this) {
+            if (mRunning != null || mPending == null) return lastResult;
+            request = takePending();
+        }
+
+        while (request != null) {
+            int result;
+            try {
+                result = mSyncer.sync(context, request.mReplaceForecast);
+            } catch (RuntimeException e) {
+                /*
+                 * If we let this escape, the request would never finish and nothing would ever
+                 * run the request queued up behind it, so every later sync would wait forever.
+                 * Treat it like any other failure that may go away, and keep going.
+                 */
+                Log.e(TAG, "Sync failed", e);
+                result = SunshineSyncTask.SYNC_FAILED_TRANSIENT;
+            }
+
+            lastResult = result;
+            request.finish(result);
+            synchronized (this) {
+                mRunning = null;
+                request = mPending != null ? takePending() : null;
+            }
+        }
+
+        return lastResult;
+    }
+
+    /**
+     * Asks for a sync, runs it on the calling thread unless another thread is already syncing,
+     * and waits for it to finish.
+     *
+     * @param context         Used to look up the preferred location, and passed on to the sync
+     * @param replaceForecast true if the stored forecast should be replaced rather than updated
+     * @return The result of the sync that answered this request
+     */
+    public int syncNow(Context context, boolean replaceForecast) throws InterruptedException {
+        SyncRequest request = enqueue(context, replaceForecast);
+        runPending(context);
+        return request.await();
+    }
+
+    private SyncRequest takePending() {
+        mRunning = mPending;
+        mPending = null;
+        return mRunning;
+    }
+}
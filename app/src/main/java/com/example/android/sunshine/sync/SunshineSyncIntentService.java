@@ -30,6 +30,25 @@ public class SunshineSyncIntentService extends IntentService {
 
     @Override
     protected void onHandleIntent(Intent intent) {
-        SunshineSyncTask.syncWeather(this);
+        /*
+         * The sync this intent was started for was enqueued with SunshineSyncCoordinator by
+         * SunshineSyncUtils#startImmediateSync. It may already have been run by an earlier
+         * intent or by the periodic job, in which case there is nothing left to do here.
+         */
+        int result = SunshineSyncCoordinator.getInstance().runPending(this);
+
+        /*
+         * Nothing reschedules this service, so if the sync is worth retrying, hand the retry to
+         * FirebaseJobDispatcher, which will back off and wait for a network for us.
+         */
+        if (result == SunshineSyncTask.SYNC_FAILED_TRANSIENT) {
+            SunshineSyncUtils.scheduleRetry(this);
+        }
+
+        /*
+         * The sync may have adapted the interval between periodic syncs. If no sync job is
+         * running, reschedule the periodic sync with it now rather than waiting for the job.
+         */
+        SunshineSyncUtils.applyAdaptedSyncInterval(this);
     }
 }
\ No newline at end of file
@@ -18,18 +18,45 @@ package com.example.android.sunshine.sync;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
+import android.os.Bundle;
 import android.text.format.DateUtils;
+import android.util.Log;
+import android.util.MalformedJsonException;
 
 import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.utilities.HttpStatusException;
 import com.example.android.sunshine.utilities.NetworkUtils;
+import com.example.android.sunshine.utilities.NotModifiedException;
 import com.example.android.sunshine.utilities.NotificationUtils;
 import com.example.android.sunshine.utilities.OpenWeatherJsonUtils;
+import com.example.android.sunshine.utilities.SunshineWeatherUtils;
 
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
 import java.net.URL;
 
 public class SunshineSyncTask {
 
+    private static final String TAG = SunshineSyncTask.class.getSimpleName();
+
+    /*
+     * The results syncWeather returns. A sync that failed for a reason that is likely to go away
+     * on its own, such as the network being down or the server answering with a 5xx, is worth
+     * retrying soon. A sync that failed because the server rejected our request or sent us
+     * something we can't parse will fail the same way until something changes, so it's left to
+     * the next periodic sync.
+     */
+    public static final int SYNC_SUCCEEDED = 0;
+    public static final int SYNC_FAILED_TRANSIENT = 1;
+    public static final int SYNC_FAILED_PERMANENT = 2;
+
+    /* Too Many Requests isn't defined in HttpURLConnection, but is worth retrying like a 5xx */
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
     /**
      * Performs the network request for updated weather, parses the JSON from that request, and
      * inserts the new weather information into our ContentProvider. Will notify the user that new
@@ -37,10 +64,50 @@ public class SunshineSyncTask {
      * AND they haven't disabled notifications in the preferences screen.
      *
      * @param context Used to access utility methods and the ContentResolver
+     * @return SYNC_SUCCEEDED, SYNC_FAILED_TRANSIENT or SYNC_FAILED_PERMANENT
+     */
+    synchronized public static int syncWeather(Context context) {
+        return syncWeather(context, false);
+    }
+
+    /**
+     * Performs the network request for updated weather and writes it into our ContentProvider.
+     * Normally only the days that changed are written, and nothing is downloaded at all if the
+     * server tells us the forecast hasn't changed since the last sync. When replaceForecast is
+     * true, the whole forecast is downloaded and every row stored for the preferred location is
+     * replaced with it instead.
+     *
+     * @param context         Used to access utility methods and the ContentResolver
+     * @param replaceForecast true to replace every stored row, false to only write changed days
+     * @return SYNC_SUCCEEDED, SYNC_FAILED_TRANSIENT or SYNC_FAILED_PERMANENT
      */
-    synchronized public static void syncWeather(Context context) {
+    synchronized public static int syncWeather(Context context, boolean replaceForecast) {
+        SyncMetrics.Record metrics = SyncMetrics.getInstance().begin(replaceForecast);
+        int result = SYNC_FAILED_PERMANENT;
+        try {
+            result = syncWeather(context, replaceForecast, metrics);
+            return result;
+        } finally {
+            SyncMetrics.getInstance().finish(metrics, result);
+        }
+    }
+
+    /**
+     * Performs the sync for {@link #syncWeather(Context, boolean)}, timing each stage of it.
+     *
+     * @param metrics Where to record how long each stage took
+     */
+    private static int syncWeather(Context context, boolean replaceForecast,
+                                   SyncMetrics.Record metrics) {
 
         try {
+            /*
+             * Remember which location we are syncing before building the request, so that the
+             * forecast is stored under that location even if the user picks another one while
+             * we are waiting for the network.
+             */
+            String locationSetting = SunshinePreferences.getPreferredWeatherLocation(context);
+
             /*
              * The getUrl method will return the URL that we need to get the forecast JSON for the
              * weather. It will decide whether to create a URL based off of the latitude and
@@ -48,12 +115,44 @@ public class SunshineSyncTask {
              */
             URL weatherRequestUrl = NetworkUtils.getUrl(context);
 
-            /* Use the URL to retrieve the JSON */
-            String jsonWeatherResponse = NetworkUtils.getResponseFromHttpUrl(weatherRequestUrl);
+            /*
+             * Use the URL to retrieve the JSON, and parse it into a list of weather values as it
+             * arrives. The response is never read into a String, so only the values we keep are
+             * ever allocated.
+             */
+            final Context appContext = context.getApplicationContext();
+            NetworkUtils.ResponseHandler<ContentValues[]> forecastParser =
+                    new NetworkUtils.ResponseHandler<ContentValues[]>() {
+                        @Override
+                        public ContentValues[] handleResponse(InputStream in)
+                                throws IOException, JSONException {
+                            return OpenWeatherJsonUtils
+                                    .getWeatherContentValuesFromJsonStream(appContext, in);
+                        }
+                    };
 
-            /* Parse the JSON into a list of weather values */
-            ContentValues[] weatherValues = OpenWeatherJsonUtils
-                    .getWeatherContentValuesFromJson(context, jsonWeatherResponse);
+            /*
+             * Unless we were asked to replace the forecast, only download it if it changed since
+             * the last sync. If it didn't, fetchFromHttpUrlIfModified throws a
+             * NotModifiedException and we skip straight past parsing and writing below.
+             */
+            metrics.beginFetch();
+            ContentValues[] weatherValues;
+            try {
+                weatherValues = replaceForecast
+                        ? NetworkUtils.fetchFromHttpUrl(weatherRequestUrl, forecastParser)
+                        : NetworkUtils.fetchFromHttpUrlIfModified(
+                                appContext, weatherRequestUrl, forecastParser);
+            } catch (NotModifiedException e) {
+                /*
+                 * The forecast we stored last time is still current, so there's nothing to do
+                 * but wait a little longer before the next sync.
+                 */
+                Log.d(TAG, e.getMessage());
+                SunshineSyncUtils.adaptSyncInterval(context, 0, 0, false);
+                return SYNC_SUCCEEDED;
+            }
+            metrics.endFetch();
 
             /*
              * In cases where our JSON contained an error code, getWeatherContentValuesFromJson
@@ -62,22 +161,87 @@ public class SunshineSyncTask {
              * there isn't any to insert.
              */
             if (weatherValues != null && weatherValues.length != 0) {
-                /* Get a handle on the ContentResolver to delete and insert data */
+                metrics.setRowsParsed(weatherValues.length);
+
+                /* Get a handle on the ContentResolver to write our data */
                 ContentResolver sunshineContentResolver = context.getContentResolver();
 
-                /* Delete old weather data because we don't need to keep multiple days' data */
-                sunshineContentResolver.delete(
-                        WeatherContract.WeatherEntry.CONTENT_URI,
-                        null,
-                        null);
+                /*
+                 * Rather than deleting every row and inserting the whole forecast again, we hand
+                 * the forecast to our ContentProvider, which compares it against what is already
+                 * stored for this location and only writes the days that changed. If we were
+                 * asked to replace the forecast, the provider deletes the location's old rows and
+                 * inserts the new ones instead. The forecasts of other locations are kept.
+                 * Either way, this happens in one transaction and observers are notified once.
+                 */
+                Bundle forecast = new Bundle();
+                forecast.putParcelableArray(WeatherContract.EXTRA_FORECAST_VALUES, weatherValues);
 
-                /* Insert our new weather data into Sunshine's ContentProvider */
-                sunshineContentResolver.bulkInsert(
+                String writeMethod = replaceForecast
+                        ? WeatherContract.METHOD_REPLACE_FORECAST
+                        : WeatherContract.METHOD_UPSERT_FORECAST;
+
+                Bundle written = sunshineContentResolver.call(
                         WeatherContract.WeatherEntry.CONTENT_URI,
-                        weatherValues);
+                        writeMethod,
+                        locationSetting,
+                        forecast);
+
+                metrics.mark(SyncMetrics.STAGE_WRITE);
+                if (written != null) {
+                    metrics.setRowsWritten(written.getInt(WeatherContract.EXTRA_ROWS_WRITTEN));
+                }
 
                 /*
-                 * Finally, after we insert data into the ContentProvider, determine whether or not
+                 * Sync more or less often depending on how much of the forecast changed. Only the
+                 * days that were already stored can tell us that; days inserted for the first
+                 * time, such as a new last day or the whole forecast of a location we hadn't
+                 * synced before, are new rather than changed. A replace is asked for by the user
+                 * or because the forecast was missing, so it tells us nothing either.
+                 */
+                if (!replaceForecast && written != null) {
+                    int rowsUpdated = written.getInt(WeatherContract.EXTRA_ROWS_UPDATED);
+                    int rowsInserted =
+                            written.getInt(WeatherContract.EXTRA_ROWS_WRITTEN) - rowsUpdated;
+                    int rowsCompared = weatherValues.length - rowsInserted;
+                    boolean severeWeather = containsSevereWeather(weatherValues);
+
+                    if (rowsCompared > 0 || severeWeather) {
+                        SunshineSyncUtils.adaptSyncInterval(context,
+                                rowsUpdated, rowsCompared, severeWeather);
+                    }
+                }
+
+                /*
+                 * Now that today's forecast is stored, drop the days that have fallen behind the
+                 * retention horizon, for every location, so the database doesn't keep growing.
+                 * We're already on a background thread, so this is a good time to do it. The
+                 * forecast is already stored by now, so if pruning fails, say because the
+                 * database is locked, we log it and still count the sync as a success.
+                 */
+                try {
+                    Bundle pruned = sunshineContentResolver.call(
+                            WeatherContract.WeatherEntry.CONTENT_URI,
+                            WeatherContract.METHOD_PRUNE_FORECAST,
+                            null,
+                            null);
+
+                    metrics.mark(SyncMetrics.STAGE_PRUNE);
+
+                    if (pruned != null) {
+                        metrics.setRowsPruned(pruned.getInt(WeatherContract.EXTRA_ROWS_DELETED));
+                        Log.d(TAG, "Pruned "
+                                + pruned.getInt(WeatherContract.EXTRA_ROWS_DELETED)
+                                + " rows, reclaimed "
+                                + pruned.getLong(WeatherContract.EXTRA_PAGES_RECLAIMED)
+                                + " pages");
+                    }
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Pruning old weather failed", e);
+                }
+
+                /*
+                 * Finally, after we write data into the ContentProvider, determine whether or not
                  * we should notify the user that the weather has been refreshed.
                  */
                 boolean notificationsEnabled = SunshinePreferences.areNotificationsEnabled(context);
@@ -103,14 +267,81 @@ public class SunshineSyncTask {
                 if (notificationsEnabled && oneDayPassedSinceLastNotification) {
                     NotificationUtils.notifyUserOfNewWeather(context);
                 }
+                metrics.mark(SyncMetrics.STAGE_NOTIFY);
 
-            /* If the code reaches this point, we have successfully performed our sync */
-
+                /* If the code reaches this point, we have successfully performed our sync */
+                return SYNC_SUCCEEDED;
             }
 
+            /*
+             * The server sent an error code in place of the forecast, most likely because it
+             * doesn't know our location. Don't let it tell us next time that this error is still
+             * current.
+             */
+            NetworkUtils.clearResponseValidators(context);
+            Log.w(TAG, "No forecast in the response for " + locationSetting);
+            return SYNC_FAILED_PERMANENT;
+
         } catch (Exception e) {
-            /* Server probably invalid */
-            e.printStackTrace();
+            /*
+             * Whatever went wrong, the forecast we fetched may not have been stored, so make sure
+             * the next sync downloads it again rather than being told it hasn't changed.
+             */
+            NetworkUtils.clearResponseValidators(context);
+
+            int result = classifyFailure(e);
+            Log.e(TAG, "Sync failed, " + (result == SYNC_FAILED_TRANSIENT
+                    ? "will retry" : "waiting for the next periodic sync"), e);
+            return result;
         }
     }
+
+    /**
+     * @param weatherValues The forecast, as returned by OpenWeatherJsonUtils
+     * @return true if severe weather is forecast for any of the days
+     */
+    private static boolean containsSevereWeather(ContentValues[] weatherValues) {
+        for (ContentValues day : weatherValues) {
+            Integer weatherId = day.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID);
+            if (weatherId != null && SunshineWeatherUtils.isSevereWeather(weatherId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Decides whether a sync that failed with the given exception is worth retrying soon.
+     * <p>
+     * Errors reading the JSON have to be checked before any other IOException: JsonReader
+     * reports malformed JSON with an IOException of its own, and a server that sends broken JSON
+     * will most likely keep sending it.
+     *
+     * @param e The exception the sync failed with
+     * @return SYNC_FAILED_TRANSIENT or SYNC_FAILED_PERMANENT
+     */
+    static int classifyFailure(Exception e) {
+        if (e instanceof JSONException
+                || e instanceof MalformedJsonException
+                || e instanceof IllegalStateException
+                || e instanceof NumberFormatException) {
+            /* The response couldn't be parsed */
+            return SYNC_FAILED_PERMANENT;
+        }
+
+        if (e instanceof HttpStatusException) {
+            int statusCode = ((HttpStatusException) e).getStatusCode();
+            return statusCode >= HttpURLConnection.HTTP_INTERNAL_ERROR
+                    || statusCode == HTTP_TOO_MANY_REQUESTS
+                    ? SYNC_FAILED_TRANSIENT
+                    : SYNC_FAILED_PERMANENT;
+        }
+
+        /* Timeouts, unknown hosts, dropped connections and the like */
+        if (e instanceof IOException) {
+            return SYNC_FAILED_TRANSIENT;
+        }
+
+        return SYNC_FAILED_PERMANENT;
+    }
 }
\ No newline at end of file
@@ -17,10 +17,14 @@ package com.example.android.sunshine.sync;
 
 import android.content.Context;
 import android.content.Intent;
+import android.content.res.Resources;
 import android.database.Cursor;
 import android.net.Uri;
 import android.support.annotation.NonNull;
+import android.util.Log;
 
+import com.example.android.sunshine.R;
+import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
 import com.firebase.jobdispatcher.Constraint;
 import com.firebase.jobdispatcher.Driver;
@@ -28,24 +32,59 @@ import com.firebase.jobdispatcher.FirebaseJobDispatcher;
 import com.firebase.jobdispatcher.GooglePlayDriver;
 import com.firebase.jobdispatcher.Job;
 import com.firebase.jobdispatcher.Lifetime;
+import com.firebase.jobdispatcher.RetryStrategy;
 import com.firebase.jobdispatcher.Trigger;
 
+import java.util.Random;
 import java.util.concurrent.TimeUnit;
 
 public class SunshineSyncUtils {
 
+    private static final String TAG = SunshineSyncUtils.class.getSimpleName();
+
     /*
-     * Interval at which to sync with the weather. Use TimeUnit for convenience, rather than
-     * writing out a bunch of multiplication ourselves and risk making a silly mistake.
+     * Interval at which to sync with the weather until we know how often the forecast changes.
+     * Use TimeUnit for convenience, rather than writing out a bunch of multiplication ourselves
+     * and risk making a silly mistake.
      */
     private static final int SYNC_INTERVAL_HOURS = 3;
     private static final int SYNC_INTERVAL_SECONDS = (int) TimeUnit.HOURS.toSeconds(SYNC_INTERVAL_HOURS);
-    private static final int SYNC_FLEXTIME_SECONDS = SYNC_INTERVAL_SECONDS / 3;
+
+    /*
+     * After every periodic sync, the interval is adapted to how much the forecast changed. It
+     * grows by half each time the forecast didn't change at all, so stable climates don't wake
+     * the phone up for nothing, and halves when at least SYNC_VOLATILE_FRACTION of the days
+     * changed. When severe weather is forecast, it drops straight to the minimum. The bounds are
+     * in res/values/integers.xml.
+     */
+    private static final float SYNC_INTERVAL_GROWTH = 1.5f;
+    private static final float SYNC_INTERVAL_SHRINK = 0.5f;
+    private static final float SYNC_VOLATILE_FRACTION = 0.5f;
 
     private static boolean sInitialized;
 
     private static final String SUNSHINE_SYNC_TAG = "sunshine-sync";
 
+    /* Tag of the one-off job that retries an immediate sync that failed */
+    private static final String SUNSHINE_SYNC_RETRY_TAG = "sunshine-sync-retry";
+
+    /*
+     * Failed syncs that are worth retrying are retried after an exponentially growing backoff,
+     * which starts somewhere between RETRY_MIN_INITIAL_BACKOFF_SECONDS and that plus
+     * RETRY_JITTER_SECONDS, and never grows past RETRY_MAX_BACKOFF_SECONDS. FirebaseJobDispatcher
+     * doesn't accept an initial backoff below 30 seconds.
+     *
+     * When our server comes back after an outage, every phone that failed to sync during it
+     * would retry at the same moments if they all used the same backoff. Picking the initial
+     * backoff at random for every job we schedule spreads those retries out, and the doubling
+     * keeps them spread out.
+     */
+    private static final int RETRY_MIN_INITIAL_BACKOFF_SECONDS = 30;
+    private static final int RETRY_JITTER_SECONDS = 30;
+    private static final int RETRY_MAX_BACKOFF_SECONDS = (int) TimeUnit.HOURS.toSeconds(1);
+
+    private static final Random sRandom = new Random();
+
     /**
      * Schedules a repeating sync of Sunshine's weather data using FirebaseJobDispatcher.
      * @param context Context used to create the GooglePlayDriver that powers the
@@ -53,6 +92,10 @@ public class SunshineSyncUtils {
      */
     static void scheduleFirebaseJobDispatcherSync(@NonNull final Context context) {
 
+        int syncIntervalSeconds =
+                SunshinePreferences.getSyncIntervalSeconds(context, SYNC_INTERVAL_SECONDS);
+        int syncFlextimeSeconds = syncIntervalSeconds / 3;
+
         Driver driver = new GooglePlayDriver(context);
         FirebaseJobDispatcher dispatcher = new FirebaseJobDispatcher(driver);
 
@@ -79,26 +122,161 @@ public class SunshineSyncUtils {
                  */
                 .setRecurring(true)
                 /*
-                 * We want the weather data to be synced every 3 to 4 hours. The first argument for
+                 * We want the weather data to be synced every 3 to 4 hours, or however long the
+                 * interval has been adapted to since. The first argument for
                  * Trigger's static executionWindow method is the start of the time frame when the
                  * sync should be performed. The second argument is the latest point in time at
                  * which the data should be synced. Please note that this end time is not
                  * guaranteed, but is more of a guideline for FirebaseJobDispatcher to go off of.
                  */
                 .setTrigger(Trigger.executionWindow(
-                        SYNC_INTERVAL_SECONDS,
-                        SYNC_INTERVAL_SECONDS + SYNC_FLEXTIME_SECONDS))
+                        syncIntervalSeconds,
+                        syncIntervalSeconds + syncFlextimeSeconds))
                 /*
                  * If a Job with the tag with provided already exists, this new job will replace
                  * the old one.
                  */
                 .setReplaceCurrent(true)
+                /*
+                 * When SunshineFirebaseJobService reports that a sync failed but is worth
+                 * retrying, back off exponentially rather than waiting for the next window.
+                 */
+                .setRetryStrategy(createRetryStrategy(dispatcher))
                 /* Once the Job is ready, call the builder's build method to return the Job */
                 .build();
 
         /* Schedule the Job with the dispatcher */
-        dispatcher.schedule(syncSunshineJob);
+        int scheduleResult = dispatcher.schedule(syncSunshineJob);
+
+        /* Remember the interval, so applyAdaptedSyncInterval knows when it is out of date */
+        if (scheduleResult == FirebaseJobDispatcher.SCHEDULE_RESULT_SUCCESS) {
+            SunshinePreferences.saveScheduledSyncIntervalSeconds(context, syncIntervalSeconds);
+        }
+    }
+
+    /**
+     * Adapts the interval between periodic syncs to how much the forecast changed in the sync
+     * that just finished. The periodic sync isn't rescheduled here, as the sync may be running in
+     * that very job, which replacing it could stop. Call {@link #applyAdaptedSyncInterval} once
+     * no sync job is running. The new interval is saved, so if the process dies before then, the
+     * next sync to finish reschedules the periodic sync instead.
+     *
+     * @param context       Used to read the bounds and the current interval
+     * @param rowsChanged   Number of stored days whose forecast changed, 0 if the server told
+     *                      us nothing changed
+     * @param rowCount      Number of days that were already stored, 0 if the forecast wasn't
+     *                      downloaded
+     * @param severeWeather true if severe weather is forecast for any of the days
+     */
+    static void adaptSyncInterval(@NonNull Context context, int rowsChanged, int rowCount,
+                                  boolean severeWeather) {
+        Resources resources = context.getResources();
+        int minSeconds = (int) TimeUnit.HOURS.toSeconds(
+                resources.getInteger(R.integer.sync_interval_min_hours));
+        int maxSeconds = (int) TimeUnit.HOURS.toSeconds(
+                resources.getInteger(R.integer.sync_interval_max_hours));
+
+        int currentSeconds =
+                SunshinePreferences.getSyncIntervalSeconds(context, SYNC_INTERVAL_SECONDS);
+        int nextSeconds = getNextSyncIntervalSeconds(
+                currentSeconds, rowsChanged, rowCount, severeWeather, minSeconds, maxSeconds);
+
+        if (nextSeconds != currentSeconds) {
+            Log.d(TAG, "Sync interval changed from " + currentSeconds + "s to "
+                    + nextSeconds + "s");
+            SunshinePreferences.saveSyncIntervalSeconds(context, nextSeconds);
+        }
+    }
+
+    /**
+     * Reschedules the periodic sync with the interval adaptSyncInterval saved, if it differs
+     * from the interval the periodic sync was last scheduled with. Does nothing while a sync job
+     * is running, as replacing the periodic job could stop it; that job applies the interval
+     * itself once it has finished.
+     *
+     * @param context Context used to create the GooglePlayDriver that powers the
+     *                FirebaseJobDispatcher
+     */
+    static void applyAdaptedSyncInterval(@NonNull Context context) {
+        if (SunshineFirebaseJobService.isJobRunning()) return;
+
+        int syncIntervalSeconds =
+                SunshinePreferences.getSyncIntervalSeconds(context, SYNC_INTERVAL_SECONDS);
+        if (syncIntervalSeconds != SunshinePreferences.getScheduledSyncIntervalSeconds(context)) {
+            scheduleFirebaseJobDispatcherSync(context);
+        }
     }
+
+    /**
+     * Works out the interval between periodic syncs from the current interval and how much the
+     * forecast changed in the last sync. See SYNC_INTERVAL_GROWTH for how.
+     *
+     * @return The next interval, in seconds, between minSeconds and maxSeconds
+     */
+    static int getNextSyncIntervalSeconds(int currentSeconds, int rowsChanged, int rowCount,
+                                          boolean severeWeather, int minSeconds, int maxSeconds) {
+        int nextSeconds;
+        if (severeWeather) {
+            nextSeconds = minSeconds;
+        } else if (rowsChanged == 0) {
+            nextSeconds = (int) (currentSeconds * SYNC_INTERVAL_GROWTH);
+        } else if (rowsChanged >= rowCount * SYNC_VOLATILE_FRACTION) {
+            nextSeconds = (int) (currentSeconds * SYNC_INTERVAL_SHRINK);
+        } else {
+            nextSeconds = currentSeconds;
+        }
+        return Math.max(minSeconds, Math.min(maxSeconds, nextSeconds));
+    }
+
+    /**
+     * Schedules a single sync to retry an immediate sync that failed but is worth retrying. The
+     * retry runs in SunshineFirebaseJobService, so if it fails as well, it backs off
+     * exponentially from there just like the periodic sync does.
+     *
+     * @param context Context used to create the GooglePlayDriver that powers the
+     *                FirebaseJobDispatcher
+     */
+    static void scheduleRetry(@NonNull final Context context) {
+        FirebaseJobDispatcher dispatcher =
+                new FirebaseJobDispatcher(new GooglePlayDriver(context));
+
+        int delaySeconds = getInitialBackoffSeconds(sRandom);
+
+        Job retryJob = dispatcher.newJobBuilder()
+                .setService(SunshineFirebaseJobService.class)
+                .setTag(SUNSHINE_SYNC_RETRY_TAG)
+                .setConstraints(Constraint.ON_ANY_NETWORK)
+                .setLifetime(Lifetime.UNTIL_NEXT_BOOT)
+                .setRecurring(false)
+                .setTrigger(Trigger.executionWindow(
+                        delaySeconds,
+                        delaySeconds + RETRY_JITTER_SECONDS))
+                /* A retry that is already scheduled is as good as a new one */
+                .setReplaceCurrent(false)
+                .setRetryStrategy(createRetryStrategy(dispatcher))
+                .build();
+
+        dispatcher.schedule(retryJob);
+    }
+
+    private static RetryStrategy createRetryStrategy(FirebaseJobDispatcher dispatcher) {
+        return dispatcher.newRetryStrategy(
+                RetryStrategy.RETRY_POLICY_EXPONENTIAL,
+                getInitialBackoffSeconds(sRandom),
+                RETRY_MAX_BACKOFF_SECONDS);
+    }
+
+    /**
+     * Picks the backoff before the first retry of a failed sync, at random between
+     * RETRY_MIN_INITIAL_BACKOFF_SECONDS and that plus RETRY_JITTER_SECONDS.
+     *
+     * @param random Source of the jitter
+     * @return The initial backoff, in seconds
+     */
+    static int getInitialBackoffSeconds(Random random) {
+        return RETRY_MIN_INITIAL_BACKOFF_SECONDS + random.nextInt(RETRY_JITTER_SECONDS + 1);
+    }
+
     /**
      * Creates periodic sync tasks and checks to see if an immediate sync is required. If an
      * immediate sync is required, this method will take care of making sure that sync occurs.
@@ -132,8 +310,9 @@ public class SunshineSyncUtils {
             @Override
             public void run() {
 
-                /* URI for every row of weather data in our weather table*/
-                Uri forecastQueryUri = WeatherContract.WeatherEntry.CONTENT_URI;
+                /* URI for every row of weather data stored for the preferred location */
+                Uri forecastQueryUri = WeatherContract.WeatherEntry.buildWeatherUriWithLocation(
+                        SunshinePreferences.getPreferredWeatherLocation(context));
 
                 /*
                  * Since this query is going to be used only as a check to see if we have any
@@ -144,13 +323,15 @@ public class SunshineSyncUtils {
                 String[] projectionColumns = {WeatherContract.WeatherEntry._ID};
                 String selectionStatement = WeatherContract.WeatherEntry
                         .getSqlSelectForTodayOnwards();
+                String[] selectionArguments = WeatherContract.WeatherEntry
+                        .getSelectionArgsForTodayOnwards();
 
                 /* Here, we perform the query to check to see if we have any weather data */
                 Cursor cursor = context.getContentResolver().query(
                         forecastQueryUri,
                         projectionColumns,
                         selectionStatement,
-                        null,
+                        selectionArguments,
                         null);
                 /*
                  * A Cursor object can be null for various different reasons. A few are
@@ -164,10 +345,12 @@ public class SunshineSyncUtils {
                  * from a ContentResolver is null.
                  *
                  * If the Cursor was null OR if it was empty, we need to sync immediately to
-                 * be able to display data to the user.
+                 * be able to display data to the user. We ask for the whole forecast, as the
+                 * server would otherwise tell us that the forecast we no longer have is still
+                 * current.
                  */
                 if (null == cursor || cursor.getCount() == 0) {
-                    startImmediateSync(context);
+                    startImmediateSync(context, true);
                 }
 
                 /* Make sure to close the Cursor to avoid memory leaks! */
@@ -184,9 +367,33 @@ public class SunshineSyncUtils {
      * execution.
      *
      * @param context The Context used to start the IntentService for the sync.
+     * @return The request that will answer this one, which can be used to wait for the sync
      */
-    public static void startImmediateSync(@NonNull final Context context) {
+    public static SunshineSyncCoordinator.SyncRequest startImmediateSync(
+            @NonNull final Context context) {
+        return startImmediateSync(context, false);
+    }
+
+    /**
+     * Helper method to perform a sync immediately using an IntentService for asynchronous
+     * execution, optionally replacing every stored row with the new forecast.
+     * <p>
+     * The request goes through SunshineSyncCoordinator, so asking for a sync while another one
+     * is waiting to run doesn't download the forecast again. The IntentService is started every
+     * time, but finds nothing left to do if the request was already answered.
+     *
+     * @param context         The Context used to start the IntentService for the sync.
+     * @param replaceForecast true if the stored forecast should be replaced rather than updated,
+     *                        for example because the user changed their location.
+     * @return The request that will answer this one, which can be used to wait for the sync
+     */
+    public static SunshineSyncCoordinator.SyncRequest startImmediateSync(
+            @NonNull final Context context, boolean replaceForecast) {
+        SunshineSyncCoordinator.SyncRequest request =
+                SunshineSyncCoordinator.getInstance().enqueue(context, replaceForecast);
+
         Intent intentToSyncImmediately = new Intent(context, SunshineSyncIntentService.class);
         context.startService(intentToSyncImmediately);
+        return request;
     }
-}
\ No newline at end of file
+}
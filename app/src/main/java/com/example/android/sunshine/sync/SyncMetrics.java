@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.support.annotation.VisibleForTesting;
+
+import com.example.android.sunshine.utilities.NetworkUtils;
+
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records how long each stage of the last few syncs took, along with how many bytes they
+ * downloaded and how many rows they parsed, wrote and pruned. Only the most recent
+ * {@link #CAPACITY} syncs are kept.
+ * <p>
+ * The records can be read with
+ * <pre>
+ *     adb shell dumpsys activity provider com.example.android.sunshine/.data.WeatherProvider
+ * </pre>
+ * which works whenever Sunshine's process is running, as WeatherProvider is always created
+ * along with it.
+ */
+public class SyncMetrics {
+
+    /* The stages of a sync, in the order they run in */
+    public static final int STAGE_BUILD_URL = 0;
+    public static final int STAGE_CONNECT = 1;
+    public static final int STAGE_DOWNLOAD = 2;
+    public static final int STAGE_PARSE = 3;
+    public static final int STAGE_WRITE = 4;
+    public static final int STAGE_PRUNE = 5;
+    public static final int STAGE_NOTIFY = 6;
+    public static final int STAGE_WEARABLE = 7;
+
+    private static final String[] STAGE_NAMES = {
+            "url", "connect", "download", "parse", "write", "prune", "notify", "wearable"
+    };
+
+    private static final int STAGE_COUNT = STAGE_NAMES.length;
+
+    @VisibleForTesting
+    static final int CAPACITY = 32;
+
+    /**
+     * The measurements of a single sync. A record is only written to by the thread running the
+     * sync, until it is handed to {@link #finish}.
+     */
+    public static class Record {
+
+        private final long mStartedAtMillis = System.currentTimeMillis();
+        private final boolean mReplaceForecast;
+        private final long[] mStageNanos = new long[STAGE_COUNT];
+
+        private long mLastMarkNanos = System.nanoTime();
+
+        /* Counters of NetworkUtils when the fetch started, or -1 while not fetching */
+        private long mConnectNanosAtFetch = -1;
+        private long mDownloadNanosAtFetch;
+        private long mBytesReceivedAtFetch;
+        private long mBytesDecompressedAtFetch;
+
+        private long mBytesReceived;
+        private long mBytesDecompressed;
+        private int mRowsParsed;
+        private int mRowsWritten;
+        private int mRowsPruned;
+        private int mResult = -1;
+
+        /* Only written under the lock of SyncMetrics, once the record was handed to finish */
+        private boolean mWearablePushRecorded;
+
+        Record(boolean replaceForecast) {
+            mReplaceForecast = replaceForecast;
+        }
+
+        /**
+         * Ends a stage. Its time is the time since the previous stage ended, or since the sync
+         * started.
+         */
+        void mark(int stage) {
+            long now = System.nanoTime();
+            mStageNanos[stage] += now - mLastMarkNanos;
+            mLastMarkNanos = now;
+        }
+
+        /**
+         * Starts fetching the forecast. The forecast is parsed while it downloads, so the time
+         * until {@link #endFetch()} is split between connecting, downloading and parsing using
+         * the timings NetworkUtils keeps.
+         */
+        void beginFetch() {
+            mark(STAGE_BUILD_URL);
+            mConnectNanosAtFetch = NetworkUtils.getConnectNanos();
+            mDownloadNanosAtFetch = NetworkUtils.getDownloadNanos();
+            mBytesReceivedAtFetch = NetworkUtils.getBytesReceived();
+            mBytesDecompressedAtFetch = NetworkUtils.getBytesDecompressed();
+        }
+
+        /**
+         * Ends the fetch started with {@link #beginFetch()}, whether or not it succeeded. Does
+         * nothing if no fetch was started, or it was already ended.
+         */
+        void endFetch() {
+            if (mConnectNanosAtFetch < 0) return;
+
+            long now = System.nanoTime();
+            long connectNanos = NetworkUtils.getConnectNanos() - mConnectNanosAtFetch;
+            long downloadNanos = NetworkUtils.getDownloadNanos() - mDownloadNanosAtFetch;
+            long parseNanos = now - mLastMarkNanos - connectNanos - downloadNanos;
+
+            mStageNanos[STAGE_CONNECT] += connectNanos;
+            mStageNanos[STAGE_DOWNLOAD] += downloadNanos;
+            mStageNanos[STAGE_PARSE] += Math.max(0, parseNanos);
+            mLastMarkNanos = now;
+
+            mBytesReceived += NetworkUtils.getBytesReceived() - mBytesReceivedAtFetch;
+            mBytesDecompressed += NetworkUtils.getBytesDecompressed() - mBytesDecompressedAtFetch;
+            mConnectNanosAtFetch = -1;
+        }
+
+        void setRowsParsed(int rowsParsed) {
+            mRowsParsed = rowsParsed;
+        }
+
+        void setRowsWritten(int rowsWritten) {
+            mRowsWritten = rowsWritten;
+        }
+
+        void setRowsPruned(int rowsPruned) {
+            mRowsPruned = rowsPruned;
+        }
+
+        long getStageNanos(int stage) {
+            return mStageNanos[stage];
+        }
+    }
+
+    private static final SyncMetrics sInstance = new SyncMetrics(CAPACITY);
+
+    /* The finished records, oldest first, starting at mOldest and wrapping around */
+    private final Record[] mRecords;
+    private int mOldest;
+    private int mSize;
+
+    @VisibleForTesting
+    SyncMetrics(int capacity) {
+        mRecords = new Record[capacity];
+    }
+
+    public static SyncMetrics getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * @param replaceForecast Whether the sync replaces the stored forecast
+     * @return A record for a sync that is starting now
+     */
+    Record begin(boolean replaceForecast) {
+        return new Record(replaceForecast);
+    }
+
+    /**
+     * Keeps the record of a sync that just finished, replacing the oldest record if there are
+     * already CAPACITY of them.
+     *
+     * @param record The record returned by {@link #begin}
+     * @param result The result returned by SunshineSyncTask
+     */
+    synchronized void finish(Record record, int result) {
+        record.endFetch();
+        record.mResult = result;
+
+        if (mSize < mRecords.length) {
+            mRecords[(mOldest + mSize) % mRecords.length] = record;
+            mSize++;
+        } else {
+            mRecords[mOldest] = record;
+            mOldest = (mOldest + 1) % mRecords.length;
+        }
+    }
+
+    /**
+     * Records the time it took to send the forecast to a wearable against the most recent sync,
+     * as it is the forecast that sync wrote that is sent. The forecast is sent from MainActivity
+     * once it has loaded it, which is after the sync finished.
+     * <p>
+     * MainActivity also sends the forecast when it loads it for other reasons, such as rotation
+     * or a change of units. Only the first push after a sync that wrote something is recorded,
+     * so the time of a sync never grows with pushes it didn't cause.
+     *
+     * @param nanos Time taken to send the forecast, in nanoseconds
+     */
+    public synchronized void recordWearablePush(long nanos) {
+        if (mSize == 0) return;
+
+        Record latest = mRecords[(mOldest + mSize - 1) % mRecords.length];
+        if (latest.mRowsWritten == 0 || latest.mWearablePushRecorded) return;
+
+        latest.mStageNanos[STAGE_WEARABLE] = nanos;
+        latest.mWearablePushRecorded = true;
+    }
+
+    /**
+     * @return The number of records kept
+     */
+    synchronized int size() {
+        return mSize;
+    }
+
+    /**
+     * @param index 0 for the oldest record kept
+     * @return The record
+     */
+    synchronized Record get(int index) {
+        return mRecords[(mOldest + index) % mRecords.length];
+    }
+
+    /**
+     * Prints every record kept, oldest first, one line per sync.
+     *
+     * @param writer Where to print them
+     */
+    public synchronized void dump(PrintWriter writer) {
+        writer.println("Sync metrics (last " + mSize + " of up to " + mRecords.length
+                + " syncs, times in ms):");
+
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+        for (int i = 0; i < mSize; i++) {
+            Record record = get(i);
+
+            StringBuilder line = new StringBuilder("  ");
+            line.append(dateFormat.format(new Date(record.mStartedAtMillis)))
+                    .append(record.mReplaceForecast ? " replace" : " update")
+                    .append(" result=").append(record.mResult);
+
+            long totalNanos = 0;
+            for (int stage = 0; stage < STAGE_COUNT; stage++) {
+                long nanos = record.mStageNanos[stage];
+                totalNanos += nanos;
+                line.append(' ').append(STAGE_NAMES[stage]).append('=')
+                        .append(String.format(Locale.US, "%.1f", toMillis(nanos)));
+            }
+
+            line.append(" total=").append(String.format(Locale.US, "%.1f", toMillis(totalNanos)))
+                    .append(" received=").append(record.mBytesReceived).append('B')
+                    .append(" decompressed=").append(record.mBytesDecompressed).append('B')
+                    .append(" parsed=").append(record.mRowsParsed)
+                    .append(" written=").append(record.mRowsWritten)
+                    .append(" pruned=").append(record.mRowsPruned);
+
+            writer.println(line);
+        }
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
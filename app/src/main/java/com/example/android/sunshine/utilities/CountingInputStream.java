@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An InputStream that counts the bytes read through it, and the time spent waiting for them.
+ * NetworkUtils wraps the response stream in one before and one after decompressing it, to find
+ * out how much a compressed response saved and how long the download took.
+ */
+class CountingInputStream extends FilterInputStream {
+
+    private long mCount;
+    private long mReadNanos;
+
+    CountingInputStream(InputStream in) {
+        super(in);
+    }
+
+    /**
+     * @return The number of bytes read or skipped so far
+     */
+    long getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return The time spent in read calls so far, in nanoseconds, including the time spent in
+     * whatever this stream wraps
+     */
+    long getReadNanos() {
+        return mReadNanos;
+    }
+
+    @Override
+    public int read() throws IOException {
+        long start = System.nanoTime();
+        int b = super.read();
+        mReadNanos += System.nanoTime() - start;
+        if (b != -1) {
+            mCount++;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+        long start = System.nanoTime();
+        int bytesRead = super.read(buffer, offset, count);
+        mReadNanos += System.nanoTime() - start;
+        if (bytesRead > 0) {
+            mCount += bytesRead;
+        }
+        return bytesRead;
+    }
+
+    @Override
+    public long skip(long byteCount) throws IOException {
+        long skipped = super.skip(byteCount);
+        mCount += skipped;
+        return skipped;
+    }
+
+    /* We can't tell how much of a reset stream will be read again, so we don't support it */
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+}
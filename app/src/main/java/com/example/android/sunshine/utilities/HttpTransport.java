@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * Sends HTTP GET requests for {@link NetworkUtils}. The app uses
+ * {@link UrlConnectionTransport}; tests can swap in a transport that never touches the network
+ * with NetworkUtils#setTransport.
+ */
+public interface HttpTransport {
+
+    /**
+     * Sends a GET request and waits for the status line and headers of its response.
+     *
+     * @param url            The URL to fetch
+     * @param requestHeaders Headers to send along with the request
+     * @return The response, which must be closed once its body has been read
+     * @throws IOException If the request couldn't be sent or the response couldn't be read
+     */
+    Response execute(URL url, Map<String, String> requestHeaders) throws IOException;
+
+    /**
+     * The response to a request sent with {@link #execute}. Closing it lets the transport reuse
+     * the connection for the next request, if the body was read completely.
+     */
+    interface Response extends Closeable {
+
+        int getStatusCode();
+
+        /**
+         * @param name The name of the header, which is matched ignoring case
+         * @return The value of the header, or null if the response doesn't have it
+         */
+        String getHeader(String name);
+
+        /**
+         * @return The body of the response, exactly as it was sent. This is never null, but may
+         * be empty.
+         */
+        InputStream getBody() throws IOException;
+    }
+}
@@ -16,17 +16,27 @@
 package com.example.android.sunshine.utilities;
 
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.net.Uri;
+import android.support.annotation.VisibleForTesting;
 import android.util.Log;
 
 import com.example.android.sunshine.data.SunshinePreferences;
 
+import org.json.JSONException;
+
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.Scanner;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
 
 /**
  * These utilities will be used to communicate with the weather servers.
@@ -83,6 +93,74 @@ public final class NetworkUtils {
     /* The days parameter allows us to designate how many days of weather data we want */
     private static final String DAYS_PARAM = "cnt";
 
+    /* Size of the buffers responses are read into, in chars or bytes */
+    private static final int RESPONSE_BUFFER_SIZE = 4096;
+
+    /*
+     * The validators of the last response fetched from each URL are stored in their own
+     * SharedPreferences file, under the URL followed by one of these suffixes. They are sent back
+     * to the server, which answers 304 Not Modified if that response is still current. The day
+     * the response was read on is stored with them, see fetchFromHttpUrlIfModified.
+     */
+    private static final String VALIDATOR_PREFERENCES = "http_validators";
+    private static final String VALIDATOR_SUFFIX_ETAG = "|etag";
+    private static final String VALIDATOR_SUFFIX_LAST_MODIFIED = "|last_modified";
+    private static final String VALIDATOR_SUFFIX_DAY = "|day";
+
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+    private static final String ENCODING_GZIP = "gzip";
+
+    /*
+     * How long to wait for the weather server to accept a connection, and for each read of its
+     * response once connected. Without these, a server that stops answering would hang the sync
+     * for good, along with every sync queued up behind it.
+     */
+    private static final int CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    private static final int READ_TIMEOUT_MILLIS = 30 * 1000;
+
+    private static final HttpTransport DEFAULT_TRANSPORT =
+            new UrlConnectionTransport(CONNECT_TIMEOUT_MILLIS, READ_TIMEOUT_MILLIS);
+
+    /* Sends every request made by this class. Tests may replace it with setTransport. */
+    private static volatile HttpTransport sTransport = DEFAULT_TRANSPORT;
+
+    /*
+     * The number of bytes of response bodies received over the network, and the number of bytes
+     * those bodies held once they were decompressed, since the process started. Responses that
+     * weren't compressed count the same towards both.
+     */
+    private static final AtomicLong sBytesReceived = new AtomicLong();
+    private static final AtomicLong sBytesDecompressed = new AtomicLong();
+
+    /*
+     * The time spent waiting for the server to answer requests, up to the headers of its
+     * response, and the time spent waiting for the bodies of those responses to arrive, since
+     * the process started. Time spent decompressing or parsing a body isn't counted.
+     */
+    private static final AtomicLong sConnectNanos = new AtomicLong();
+    private static final AtomicLong sDownloadNanos = new AtomicLong();
+
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    /**
+     * Reads the body of an HTTP response as it arrives. Implementations are handed the response
+     * stream itself, so they can parse it without the body ever being copied into a String.
+     *
+     * @param <T> The type of the result read from the response
+     */
+    public interface ResponseHandler<T> {
+
+        /**
+         * @param in The body of the response. It is closed once this method returns.
+         * @return The result of reading the response
+         */
+        T handleResponse(InputStream in) throws IOException, JSONException;
+    }
+
     /**
      * Retrieves the proper URL to query for the weather data. The reason for both this method as
      * well as {@link #buildUrlWithLocationQuery(String)} is two fold.
@@ -162,29 +240,276 @@ public final class NetworkUtils {
     }
 
     /**
-     * This method returns the entire result from the HTTP response.
+     * Fetches a URL and hands the body of the response to a ResponseHandler as it arrives. This
+     * is how the forecast should be fetched: the handler parses the JSON straight off the network,
+     * so the response is never held in memory as a whole.
      *
-     * @param url The URL to fetch the HTTP response from.
-     * @return The contents of the HTTP response, null if no response
-     * @throws IOException Related to network and stream reading
+     * @param url     The URL to fetch the HTTP response from.
+     * @param handler Reads the body of the response
+     * @param <T>     The type of the result read from the response
+     * @return The result returned by the handler
+     * @throws IOException   Related to network and stream reading
+     * @throws JSONException If the handler couldn't parse the response
      */
-    public static String getResponseFromHttpUrl(URL url) throws IOException {
-        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+    public static <T> T fetchFromHttpUrl(URL url, ResponseHandler<T> handler)
+            throws IOException, JSONException {
+        HttpTransport.Response response = execute(url, new HashMap<String, String>());
         try {
-            InputStream in = urlConnection.getInputStream();
+            return readResponse(response, handler);
+        } finally {
+            response.close();
+        }
+    }
 
-            Scanner scanner = new Scanner(in);
-            scanner.useDelimiter("\\A");
+    /**
+     * Fetches a URL like {@link #fetchFromHttpUrl(URL, ResponseHandler)} does, but only if the
+     * response has changed since the last time this method fetched it. The ETag and Last-Modified
+     * validators of every response are stored, and sent back as If-None-Match and
+     * If-Modified-Since the next time the same URL is fetched. If the server then answers 304 Not
+     * Modified, the handler isn't called at all and a {@link NotModifiedException} is thrown.
+     * <p>
+     * The validators are stored once the handler has read the response without throwing. Callers
+     * that fail to store what the handler returned should call
+     * {@link #clearResponseValidators(Context)}, so that the next fetch downloads it again.
+     * <p>
+     * Validators are only sent back on the same UTC day the response was read. OpenWeatherJsonUtils
+     * dates the days of a forecast counting from today, so a response that hasn't changed still
+     * has to be parsed again once the day has, or the stored forecast would stay a day behind.
+     *
+     * @param context Used to access the stored validators
+     * @param url     The URL to fetch the HTTP response from.
+     * @param handler Reads the body of the response
+     * @param <T>     The type of the result read from the response
+     * @return The result returned by the handler
+     * @throws NotModifiedException If the last response fetched from this URL is still current
+     * @throws IOException          Related to network and stream reading
+     * @throws JSONException        If the handler couldn't parse the response
+     */
+    public static <T> T fetchFromHttpUrlIfModified(Context context, URL url,
+                                                   ResponseHandler<T> handler)
+            throws IOException, JSONException {
+        return fetchFromHttpUrlIfModified(context, url, handler,
+                SunshineDateUtils.getNormalizedUtcDateForToday());
+    }
 
-            boolean hasInput = scanner.hasNext();
-            String response = null;
-            if (hasInput) {
-                response = scanner.next();
+    /**
+     * @param today The normalized UTC date of today, which tests may move forward
+     * @see #fetchFromHttpUrlIfModified(Context, URL, ResponseHandler)
+     */
+    @VisibleForTesting
+    static <T> T fetchFromHttpUrlIfModified(Context context, URL url,
+                                            ResponseHandler<T> handler, long today)
+            throws IOException, JSONException {
+        SharedPreferences validators = getValidatorPreferences(context);
+        String eTagKey = url.toString() + VALIDATOR_SUFFIX_ETAG;
+        String lastModifiedKey = url.toString() + VALIDATOR_SUFFIX_LAST_MODIFIED;
+        String dayKey = url.toString() + VALIDATOR_SUFFIX_DAY;
+
+        Map<String, String> requestHeaders = new HashMap<>();
+        if (validators.getLong(dayKey, -1) == today) {
+            String eTag = validators.getString(eTagKey, null);
+            if (eTag != null) {
+                requestHeaders.put(HEADER_IF_NONE_MATCH, eTag);
+            }
+            String lastModified = validators.getString(lastModifiedKey, null);
+            if (lastModified != null) {
+                requestHeaders.put(HEADER_IF_MODIFIED_SINCE, lastModified);
             }
-            scanner.close();
-            return response;
+        }
+
+        HttpTransport.Response response = execute(url, requestHeaders);
+        try {
+            if (response.getStatusCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                throw new NotModifiedException(url);
+            }
+
+            T result = readResponse(response, handler);
+
+            /* Validators the server didn't send this time must not be sent back next time */
+            SharedPreferences.Editor editor = validators.edit();
+            putOrRemove(editor, eTagKey, response.getHeader(HEADER_ETAG));
+            putOrRemove(editor, lastModifiedKey, response.getHeader(HEADER_LAST_MODIFIED));
+            editor.putLong(dayKey, today);
+            editor.apply();
+
+            return result;
         } finally {
-            urlConnection.disconnect();
+            response.close();
+        }
+    }
+
+    /**
+     * Forgets the validators of every response fetched so far, so that the next call to
+     * {@link #fetchFromHttpUrlIfModified} downloads the whole response again.
+     *
+     * @param context Used to access the stored validators
+     */
+    public static void clearResponseValidators(Context context) {
+        getValidatorPreferences(context).edit().clear().apply();
+    }
+
+    private static SharedPreferences getValidatorPreferences(Context context) {
+        return context.getSharedPreferences(VALIDATOR_PREFERENCES, Context.MODE_PRIVATE);
+    }
+
+    private static void putOrRemove(SharedPreferences.Editor editor, String key, String value) {
+        if (value != null) {
+            editor.putString(key, value);
+        } else {
+            editor.remove(key);
+        }
+    }
+
+    /**
+     * Replaces the transport every request is sent with, so that tests can answer requests
+     * without going to the network.
+     *
+     * @param transport The transport to use, or null to go back to the default one
+     */
+    @VisibleForTesting
+    static void setTransport(HttpTransport transport) {
+        sTransport = transport != null ? transport : DEFAULT_TRANSPORT;
+    }
+
+    /**
+     * Sends a request that asks for a gzip-compressed response, and fails with an
+     * {@link HttpStatusException} if the server answers with an error.
+     * <p>
+     * HttpURLConnection would ask for gzip on its own, but it then decompresses the response out
+     * of sight, and we could never tell how many bytes actually came over the network. Asking for
+     * it ourselves means the response is handed to us as it was sent, and readResponse
+     * decompresses it.
+     *
+     * @return The response, which the caller must close
+     */
+    private static HttpTransport.Response execute(URL url, Map<String, String> requestHeaders)
+            throws IOException {
+        requestHeaders.put(HEADER_ACCEPT_ENCODING, ENCODING_GZIP);
+
+        long start = System.nanoTime();
+        HttpTransport.Response response;
+        try {
+            response = sTransport.execute(url, requestHeaders);
+        } finally {
+            sConnectNanos.addAndGet(System.nanoTime() - start);
+        }
+
+        int statusCode = response.getStatusCode();
+        if (statusCode >= HttpURLConnection.HTTP_BAD_REQUEST) {
+            response.close();
+            throw new HttpStatusException(url, statusCode);
+        }
+        return response;
+    }
+
+    /**
+     * Hands the body of a connection's response to a ResponseHandler, decompressing it first if
+     * the server compressed it, and closing it afterwards. The bytes read before and after
+     * decompression are added to the counters returned by {@link #getBytesReceived()} and
+     * {@link #getBytesDecompressed()}.
+     * <p>
+     * Parsers usually stop reading as soon as they have what they need, which may leave the end
+     * of the body (and the gzip trailer) unread. We read whatever they leave, so that the body is
+     * counted in full and the connection can be reused for the next request.
+     */
+    private static <T> T readResponse(HttpTransport.Response response, ResponseHandler<T> handler)
+            throws IOException, JSONException {
+        CountingInputStream received = new CountingInputStream(response.getBody());
+        CountingInputStream decompressed =
+                ENCODING_GZIP.equalsIgnoreCase(response.getHeader(HEADER_CONTENT_ENCODING))
+                        ? new CountingInputStream(new GZIPInputStream(received))
+                        : received;
+        try {
+            /* The handler may close the stream it is given, but we still need to drain it */
+            InputStream body = new FilterInputStream(decompressed) {
+                @Override
+                public void close() {
+                    /* Closed below, once it has been drained */
+                }
+            };
+
+            T result = handler.handleResponse(body);
+
+            byte[] buffer = new byte[RESPONSE_BUFFER_SIZE];
+            while (decompressed.read(buffer) != -1) {
+                /* Discard the rest of the body */
+            }
+            return result;
+        } finally {
+            decompressed.close();
+
+            sBytesReceived.addAndGet(received.getCount());
+            sBytesDecompressed.addAndGet(decompressed.getCount());
+            sDownloadNanos.addAndGet(received.getReadNanos());
+            Log.v(TAG, "Received " + received.getCount() + " bytes, "
+                    + decompressed.getCount() + " decompressed");
+        }
+    }
+
+    /**
+     * @return The number of bytes of response bodies received over the network since the process
+     * started, before decompression
+     */
+    public static long getBytesReceived() {
+        return sBytesReceived.get();
+    }
+
+    /**
+     * @return The number of bytes of response bodies read since the process started, after
+     * decompression
+     */
+    public static long getBytesDecompressed() {
+        return sBytesDecompressed.get();
+    }
+
+    /**
+     * @return The time spent waiting for the headers of responses since the process started, in
+     * nanoseconds, including the time it took to connect
+     */
+    public static long getConnectNanos() {
+        return sConnectNanos.get();
+    }
+
+    /**
+     * @return The time spent waiting for the bodies of responses to arrive since the process
+     * started, in nanoseconds
+     */
+    public static long getDownloadNanos() {
+        return sDownloadNanos.get();
+    }
+
+    /**
+     * This method returns the entire result from the HTTP response. Prefer
+     * {@link #fetchFromHttpUrl(URL, ResponseHandler)} for anything that can be parsed as it is
+     * read.
+     *
+     * @param url The URL to fetch the HTTP response from.
+     * @return The contents of the HTTP response, null if no response
+     * @throws IOException Related to network and stream reading
+     */
+    public static String getResponseFromHttpUrl(URL url) throws IOException {
+        try {
+            return fetchFromHttpUrl(url, new ResponseHandler<String>() {
+                @Override
+                public String handleResponse(InputStream in) throws IOException {
+                    /*
+                     * Scanner would run a regular expression over the stream to find its end.
+                     * Copying it through a buffer into a StringBuilder does the same with a
+                     * single copy of the data.
+                     */
+                    Reader reader = new InputStreamReader(in, "UTF-8");
+                    StringBuilder response = new StringBuilder();
+                    char[] buffer = new char[RESPONSE_BUFFER_SIZE];
+                    int charsRead;
+                    while ((charsRead = reader.read(buffer)) != -1) {
+                        response.append(buffer, 0, charsRead);
+                    }
+                    return response.length() > 0 ? response.toString() : null;
+                }
+            });
+        } catch (JSONException e) {
+            /* Our handler doesn't parse anything, so it can't get here */
+            throw new IllegalStateException(e);
         }
     }
 }
\ No newline at end of file
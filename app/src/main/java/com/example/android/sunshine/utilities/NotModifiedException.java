@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import java.io.IOException;
+import java.net.URL;
+
+/**
+ * Thrown by {@link NetworkUtils#fetchFromHttpUrlIfModified} when the server answers 304 Not
+ * Modified, meaning the response we fetched last time is still current and there is nothing new
+ * to read.
+ */
+public class NotModifiedException extends IOException {
+
+    public NotModifiedException(URL url) {
+        super("Not modified: " + url);
+    }
+}
@@ -17,6 +17,7 @@ package com.example.android.sunshine.utilities;
 
 import android.content.ContentValues;
 import android.content.Context;
+import android.util.JsonReader;
 
 import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
@@ -25,7 +26,12 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Utility functions to handle OpenWeatherMap JSON data.
@@ -60,6 +66,17 @@ public final class OpenWeatherJsonUtils {
 
     private static final String OWM_MESSAGE_CODE = "cod";
 
+    /* The columns every day of a forecast must have a value for */
+    private static final String[] DAY_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID
+    };
+
     /**
      * This method parses JSON from a web response and returns an array of Strings
      * describing the weather over various days from the forecast.
@@ -181,4 +198,241 @@ public final class OpenWeatherJsonUtils {
 
         return weatherContentValues;
     }
-}
\ No newline at end of file
+
+    /**
+     * Parses the same JSON as {@link #getWeatherContentValuesFromJson(Context, String)}, but
+     * reads it token by token straight off a stream instead of building a JSONObject of the
+     * whole response first. Only the fields we store are turned into values; everything else in
+     * the response (descriptions, icons, the other temperatures of the day and so on) is skipped
+     * without ever being allocated. The result is the same as the one the String version returns
+     * for the same JSON.
+     * <p>
+     * The fields of the response may come in any order, so the error code is only checked once
+     * the whole response has been read, and the location details are only stored if the
+     * response turned out to be a forecast.
+     *
+     * @param context Used to store the location details of the forecast
+     * @param in      The JSON response from the server, encoded as UTF-8. It is closed once it has
+     *                been read.
+     *
+     * @return The forecast, one set of ContentValues per day, or null if the server returned an
+     * error code
+     *
+     * @throws IOException   If the stream can't be read or doesn't contain valid JSON
+     * @throws JSONException If a field that we store is missing from the JSON
+     */
+    public static ContentValues[] getWeatherContentValuesFromJsonStream(Context context,
+                                                                        InputStream in)
+            throws IOException, JSONException {
+
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            int errorCode = HttpURLConnection.HTTP_OK;
+            double[] cityCoordinates = null;
+            List<ContentValues> weatherContentValues = null;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case OWM_MESSAGE_CODE:
+                        errorCode = reader.nextInt();
+                        break;
+
+                    case OWM_CITY:
+                        cityCoordinates = readCityCoordinates(reader);
+                        break;
+
+                    case OWM_LIST:
+                        weatherContentValues = readDays(reader);
+                        break;
+
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            /* Location invalid or server probably down, exactly as above */
+            if (errorCode != HttpURLConnection.HTTP_OK) {
+                return null;
+            }
+
+            if (weatherContentValues == null) {
+                throw new JSONException("No value for " + OWM_LIST);
+            }
+            if (cityCoordinates == null) {
+                throw new JSONException("No value for " + OWM_CITY);
+            }
+
+            SunshinePreferences.setLocationDetails(context,
+                    cityCoordinates[0],
+                    cityCoordinates[1]);
+
+            return weatherContentValues.toArray(new ContentValues[weatherContentValues.size()]);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Reads the "city" object of the response, keeping only its coordinates.
+     *
+     * @return The latitude and longitude of the city, in that order
+     */
+    private static double[] readCityCoordinates(JsonReader reader)
+            throws IOException, JSONException {
+
+        double[] coordinates = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!OWM_COORD.equals(reader.nextName())) {
+                reader.skipValue();
+                continue;
+            }
+
+            Double latitude = null;
+            Double longitude = null;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case OWM_LATITUDE:
+                        latitude = reader.nextDouble();
+                        break;
+
+                    case OWM_LONGITUDE:
+                        longitude = reader.nextDouble();
+                        break;
+
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if (latitude == null || longitude == null) {
+                throw new JSONException("No value for "
+                        + (latitude == null ? OWM_LATITUDE : OWM_LONGITUDE));
+            }
+            coordinates = new double[]{latitude, longitude};
+        }
+        reader.endObject();
+
+        if (coordinates == null) {
+            throw new JSONException("No value for " + OWM_COORD);
+        }
+        return coordinates;
+    }
+
+    /**
+     * Reads the "list" array of the response. As above, days are dated by their position in
+     * the array, starting from today.
+     */
+    private static List<ContentValues> readDays(JsonReader reader)
+            throws IOException, JSONException {
+
+        long normalizedUtcStartDay = SunshineDateUtils.getNormalizedUtcDateForToday();
+        List<ContentValues> weatherContentValues = new ArrayList<>();
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            long dateTimeMillis = normalizedUtcStartDay
+                    + SunshineDateUtils.DAY_IN_MILLIS * weatherContentValues.size();
+            weatherContentValues.add(readDay(reader, dateTimeMillis));
+        }
+        reader.endArray();
+
+        return weatherContentValues;
+    }
+
+    /**
+     * Reads a single day of the "list" array into the same ContentValues, with the same types,
+     * that {@link #getWeatherContentValuesFromJson(Context, String)} builds. The String version
+     * reads humidity and weather id with JSONObject#getInt, which truncates decimals, so we do too.
+     */
+    private static ContentValues readDay(JsonReader reader, long dateTimeMillis)
+            throws IOException, JSONException {
+
+        ContentValues weatherValues = new ContentValues();
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTimeMillis);
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case OWM_PRESSURE:
+                    weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+                            reader.nextDouble());
+                    break;
+
+                case OWM_HUMIDITY:
+                    weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+                            (int) reader.nextDouble());
+                    break;
+
+                case OWM_WINDSPEED:
+                    weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+                            reader.nextDouble());
+                    break;
+
+                case OWM_WIND_DIRECTION:
+                    weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES,
+                            reader.nextDouble());
+                    break;
+
+                case OWM_TEMPERATURE:
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        switch (reader.nextName()) {
+                            case OWM_MAX:
+                                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+                                        reader.nextDouble());
+                                break;
+
+                            case OWM_MIN:
+                                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+                                        reader.nextDouble());
+                                break;
+
+                            default:
+                                reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                    break;
+
+                case OWM_WEATHER:
+                    /* Only the first element of the "weather" array holds the weather code */
+                    reader.beginArray();
+                    if (reader.hasNext()) {
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            if (OWM_WEATHER_ID.equals(reader.nextName())) {
+                                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+                                        (int) reader.nextDouble());
+                            } else {
+                                reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                    }
+                    while (reader.hasNext()) {
+                        reader.skipValue();
+                    }
+                    reader.endArray();
+                    break;
+
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        for (String column : DAY_COLUMNS) {
+            if (!weatherValues.containsKey(column)) {
+                throw new JSONException("No value for " + column);
+            }
+        }
+        return weatherValues;
+    }
+}
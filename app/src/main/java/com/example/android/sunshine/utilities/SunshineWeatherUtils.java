@@ -59,10 +59,11 @@ public final class SunshineWeatherUtils {
             temperature = celsiusToFahrenheit(temperature);
         }
 
-        int temperatureFormatResourceId = R.string.format_temperature;
-
-        /* For presentation, assume the user doesn't care about tenths of a degree. */
-        return String.format(context.getString(temperatureFormatResourceId), temperature);
+        /*
+         * For presentation, assume the user doesn't care about tenths of a degree. This gives
+         * the same String as String.format with the format string, without its garbage.
+         */
+        return WeatherFormatter.formatTemperature(context, temperature);
     }
 
     /**
@@ -128,7 +129,29 @@ public final class SunshineWeatherUtils {
             direction = "NW";
         }
 
-        return String.format(context.getString(windFormat), windSpeed, direction);
+        return WeatherFormatter.formatWind(context, windFormat, windSpeed, direction);
+    }
+
+    /**
+     * Tells whether a weather condition is severe enough that the user will want their forecast
+     * kept as fresh as possible: thunderstorms, heavy rain and snow, freezing rain, tornadoes,
+     * tropical storms, hurricanes, hail and gales.
+     *
+     * @param weatherId from OpenWeatherMap API response
+     *                  See http://openweathermap.org/weather-conditions for a list of all IDs
+     *
+     * @return true if the condition is severe
+     */
+    public static boolean isSevereWeather(int weatherId) {
+        return (weatherId >= 200 && weatherId <= 232)
+                || (weatherId >= 502 && weatherId <= 504)
+                || weatherId == 511
+                || weatherId == 602
+                || (weatherId >= 621 && weatherId <= 622)
+                || weatherId == 781
+                || (weatherId >= 900 && weatherId <= 902)
+                || weatherId == 906
+                || (weatherId >= 958 && weatherId <= 962);
     }
 
     /**
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * An {@link HttpTransport} built on HttpURLConnection.
+ * <p>
+ * HttpURLConnection keeps a pool of idle keep-alive connections for the whole process, and hands
+ * one back out for the next request to the same server. A connection only goes back into that
+ * pool once its response has been read to the end and its stream closed; calling disconnect()
+ * closes the socket instead. So responses are released by closing their stream, and we only
+ * disconnect when a request fails. This way the requests of one sync, or of syncs for several
+ * locations in a row, share a single connection and a single TLS handshake.
+ * <p>
+ * HttpURLConnection doesn't time out by default, so a server that accepts a connection and then
+ * never answers would block the sync thread forever. Every request here has both a connect and
+ * a read timeout.
+ */
+public class UrlConnectionTransport implements HttpTransport {
+
+    private final int mConnectTimeoutMillis;
+    private final int mReadTimeoutMillis;
+
+    /**
+     * @param connectTimeoutMillis How long to wait for a connection to be established
+     * @param readTimeoutMillis    How long to wait for each read from the connection, including
+     *                             the wait for the response to start
+     */
+    public UrlConnectionTransport(int connectTimeoutMillis, int readTimeoutMillis) {
+        mConnectTimeoutMillis = connectTimeoutMillis;
+        mReadTimeoutMillis = readTimeoutMillis;
+    }
+
+    @Override
+    public Response execute(URL url, Map<String, String> requestHeaders) throws IOException {
+        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        urlConnection.setConnectTimeout(mConnectTimeoutMillis);
+        urlConnection.setReadTimeout(mReadTimeoutMillis);
+        for (Map.Entry<String, String> header : requestHeaders.entrySet()) {
+            urlConnection.setRequestProperty(header.getKey(), header.getValue());
+        }
+
+        try {
+            return new UrlConnectionResponse(urlConnection, urlConnection.getResponseCode());
+        } catch (IOException e) {
+            urlConnection.disconnect();
+            throw e;
+        }
+    }
+
+    private static class UrlConnectionResponse implements Response {
+
+        private final HttpURLConnection mUrlConnection;
+        private final int mStatusCode;
+        private InputStream mBody;
+
+        UrlConnectionResponse(HttpURLConnection urlConnection, int statusCode) {
+            mUrlConnection = urlConnection;
+            mStatusCode = statusCode;
+        }
+
+        @Override
+        public int getStatusCode() {
+            return mStatusCode;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return mUrlConnection.getHeaderField(name);
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            if (mBody == null) {
+                /* The body of an error response has to be read from the error stream */
+                mBody = mStatusCode >= HttpURLConnection.HTTP_BAD_REQUEST
+                        ? mUrlConnection.getErrorStream()
+                        : mUrlConnection.getInputStream();
+                if (mBody == null) {
+                    mBody = new ByteArrayInputStream(new byte[0]);
+                }
+            }
+            return mBody;
+        }
+
+        @Override
+        public void close() throws IOException {
+            /* This returns the connection to the pool if its body was read completely */
+            getBody().close();
+        }
+    }
+}
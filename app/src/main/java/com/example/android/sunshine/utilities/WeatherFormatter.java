@@ -0,0 +1,356 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.ComponentCallbacks;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.util.SparseArray;
+
+import com.example.android.sunshine.R;
+
+import java.text.DecimalFormatSymbols;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Formats temperatures and wind speeds exactly like String.format does with our
+ * format_temperature, format_wind_kmh and format_wind_mph strings, without String.format.
+ * <p>
+ * String.format creates a Formatter, a varargs array and a boxed Double every time it is
+ * called, and parses the format string again. Temperatures are formatted for every day in the
+ * list, in DetailActivity, in notifications and for the wearable, so instead we parse each format
+ * string once into the text around its arguments, keep it until the configuration changes, and
+ * append the rounded number ourselves into a StringBuilder. The append methods don't allocate
+ * anything, and the format methods only allocate the String they return.
+ * <p>
+ * Only "%1.0f"-style numbers without flags and "%s" strings are handled this way. If a format
+ * string uses anything else, or the locale writes numbers with other digits, or this runtime's
+ * Formatter disagrees with us on any of a few tricky values, we go back to String.format for that
+ * format string. Either way, the result is the same as before.
+ */
+public final class WeatherFormatter {
+
+    /* Values that catch differences in rounding and in the sign of results that round to 0 */
+    private static final double[] PROBE_VALUES = {
+            0, -0.0, 0.4, -0.4, 0.5, -0.5, 1.5, -1.5, 2.5, -2.5, 0.49999999999999994,
+            -0.49999999999999994, 21.49, -21.5, 99.5, 1234.56, -40
+    };
+
+    /* Above this, a number has more digits than a long, or is written in another way */
+    private static final double MAX_FAST_MAGNITUDE = 1e15;
+
+    /* Parsed format strings by resource id, and how many times they have been dropped */
+    private static final SparseArray<Template> sTemplates = new SparseArray<>();
+    private static long sGeneration;
+    private static boolean sListeningForConfigurationChanges;
+
+    /* Drops every parsed format string when the configuration, and so maybe the locale, changes */
+    private static final ComponentCallbacks sConfigurationListener = new ComponentCallbacks() {
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+            synchronized (sTemplates) {
+                sTemplates.clear();
+                sGeneration++;
+            }
+        }
+
+        @Override
+        public void onLowMemory() {
+        }
+    };
+
+    private static final ThreadLocal<StringBuilder> sBuilder = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(32);
+        }
+    };
+
+    private WeatherFormatter() {
+    }
+
+    /**
+     * @param context     Used to read the format string
+     * @param temperature Temperature, already in the user's preferred units
+     * @return The same String as String.format(getString(R.string.format_temperature),
+     * temperature)
+     */
+    public static String formatTemperature(Context context, double temperature) {
+        StringBuilder builder = sBuilder.get();
+        builder.setLength(0);
+        return appendTemperature(context, builder, temperature).toString();
+    }
+
+    /**
+     * Appends what {@link #formatTemperature} returns to a StringBuilder.
+     *
+     * @return out, for chaining
+     */
+    public static StringBuilder appendTemperature(Context context, StringBuilder out,
+                                                  double temperature) {
+        Template template = getTemplate(context, R.string.format_temperature);
+        if (template.fast && isFast(temperature)) {
+            template.appendLiteral(out, 0);
+            appendRounded(out, temperature);
+            template.appendLiteral(out, 1);
+            return out;
+        }
+        return out.append(String.format(template.source, temperature));
+    }
+
+    /**
+     * @param context        Used to read the format string
+     * @param windFormatId   R.string.format_wind_kmh or R.string.format_wind_mph
+     * @param windSpeed      Wind speed, already in the units of the format string
+     * @param direction      Compass direction, such as "NW"
+     * @return The same String as String.format(getString(windFormatId), windSpeed, direction)
+     */
+    public static String formatWind(Context context, int windFormatId, float windSpeed,
+                                    String direction) {
+        StringBuilder builder = sBuilder.get();
+        builder.setLength(0);
+        return appendWind(context, builder, windFormatId, windSpeed, direction).toString();
+    }
+
+    /**
+     * Appends what {@link #formatWind} returns to a StringBuilder.
+     *
+     * @return out, for chaining
+     */
+    public static StringBuilder appendWind(Context context, StringBuilder out, int windFormatId,
+                                           float windSpeed, String direction) {
+        Template template = getTemplate(context, windFormatId);
+        if (template.fast && isFast(windSpeed)) {
+            for (int i = 0; i < template.argumentIndices.length; i++) {
+                template.appendLiteral(out, i);
+                if (template.argumentIndices[i] == 0) {
+                    appendRounded(out, windSpeed);
+                } else {
+                    out.append(direction);
+                }
+            }
+            template.appendLiteral(out, template.argumentIndices.length);
+            return out;
+        }
+        return out.append(String.format(template.source, windSpeed, direction));
+    }
+
+    private static boolean isFast(double value) {
+        return Math.abs(value) < MAX_FAST_MAGNITUDE;
+    }
+
+    /**
+     * Appends a number rounded to a whole number, the way "%.0f" does: half away from zero,
+     * with a minus sign for negative numbers that round to 0. The digits are written one at a
+     * time, as StringBuilder.append(long) may allocate a buffer on some versions of Android.
+     */
+    private static void appendRounded(StringBuilder out, double value) {
+        if (value < 0 || (value == 0 && 1 / value < 0)) {
+            out.append('-');
+        }
+
+        double magnitude = Math.abs(value);
+        long whole = (long) magnitude;
+
+        /* Exact for any magnitude that fits in a long, unlike magnitude + 0.5 */
+        if (magnitude - whole >= 0.5) {
+            whole++;
+        }
+
+        long divisor = 1;
+        while (divisor <= whole / 10) {
+            divisor *= 10;
+        }
+        while (divisor > 0) {
+            out.append((char) ('0' + (whole / divisor) % 10));
+            divisor /= 10;
+        }
+    }
+
+    /**
+     * Returns the parsed format string. Format strings are only read and parsed the first time
+     * they are used, and again after the configuration or the default locale changes, which are
+     * the only things that can change what getString returns for them.
+     */
+    private static Template getTemplate(Context context, int formatId) {
+        Locale locale = Locale.getDefault();
+
+        long generation;
+        synchronized (sTemplates) {
+            if (!sListeningForConfigurationChanges) {
+                Context applicationContext = context.getApplicationContext();
+                if (applicationContext == null) {
+                    applicationContext = context;
+                }
+                applicationContext.registerComponentCallbacks(sConfigurationListener);
+                sListeningForConfigurationChanges = true;
+            }
+
+            Template template = sTemplates.get(formatId);
+            if (template != null && template.locale == locale) {
+                return template;
+            }
+            generation = sGeneration;
+        }
+
+        Template template = new Template(context.getString(formatId), locale);
+        synchronized (sTemplates) {
+            /* Don't keep a template read before the configuration changed */
+            if (generation == sGeneration) {
+                sTemplates.put(formatId, template);
+            }
+        }
+        return template;
+    }
+
+    /**
+     * A format string split into the text before, between and after its arguments.
+     */
+    private static final class Template {
+
+        final String source;
+        final Locale locale;
+
+        /* Literal i comes before argument i, and the last literal comes after every argument */
+        private final String[] literals;
+
+        /* The index of the format argument each placeholder stands for, from 0 */
+        final int[] argumentIndices;
+
+        /* Whether we can format with this template, rather than with String.format */
+        final boolean fast;
+
+        Template(String source, Locale locale) {
+            this.source = source;
+            this.locale = locale;
+
+            List<String> literals = new ArrayList<>();
+            List<Integer> argumentIndices = new ArrayList<>();
+            boolean parsed = parse(source, literals, argumentIndices);
+
+            this.literals = literals.toArray(new String[literals.size()]);
+            this.argumentIndices = new int[argumentIndices.size()];
+            for (int i = 0; i < this.argumentIndices.length; i++) {
+                this.argumentIndices[i] = argumentIndices.get(i);
+            }
+
+            this.fast = parsed && writesAsciiNumbers(locale) && agreesWithStringFormat();
+        }
+
+        void appendLiteral(StringBuilder out, int index) {
+            out.append(literals[index]);
+        }
+
+        /**
+         * Splits a format string into literals and placeholders. The first argument has to be a
+         * number formatted with "%.0f", optionally with a width of 1, and the second, if there
+         * is one, a string formatted with "%s". Arguments may be numbered ("%1$1.0f").
+         *
+         * @return false if the format string uses anything else
+         */
+        private static boolean parse(String source, List<String> literals,
+                                     List<Integer> argumentIndices) {
+            StringBuilder literal = new StringBuilder();
+            int nextArgument = 0;
+            int i = 0;
+            while (i < source.length()) {
+                char c = source.charAt(i++);
+                if (c != '%') {
+                    literal.append(c);
+                    continue;
+                }
+                if (i >= source.length()) return false;
+                if (source.charAt(i) == '%') {
+                    literal.append('%');
+                    i++;
+                    continue;
+                }
+
+                /* Optional argument number, such as "1$" */
+                int argument = nextArgument++;
+                int dollar = source.indexOf('$', i);
+                if (dollar > i && isDigits(source, i, dollar)) {
+                    argument = Integer.parseInt(source.substring(i, dollar)) - 1;
+                    i = dollar + 1;
+                }
+
+                int end = i;
+                while (end < source.length() && !Character.isLetter(source.charAt(end))) {
+                    end++;
+                }
+                if (end >= source.length()) return false;
+
+                String spec = source.substring(i, end);
+                char conversion = source.charAt(end);
+                i = end + 1;
+
+                if (argument == 0 && conversion == 'f'
+                        && (spec.equals(".0") || spec.equals("1.0"))) {
+                    argumentIndices.add(0);
+                } else if (argument == 1 && conversion == 's' && spec.isEmpty()) {
+                    argumentIndices.add(1);
+                } else {
+                    return false;
+                }
+
+                literals.add(literal.toString());
+                literal.setLength(0);
+            }
+            literals.add(literal.toString());
+            return true;
+        }
+
+        private static boolean isDigits(String source, int start, int end) {
+            for (int i = start; i < end; i++) {
+                if (!Character.isDigit(source.charAt(i))) return false;
+            }
+            return true;
+        }
+
+        /* Formatter writes numbers with the locale's digits and minus sign */
+        private static boolean writesAsciiNumbers(Locale locale) {
+            DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(locale);
+            return symbols.getZeroDigit() == '0' && symbols.getMinusSign() == '-';
+        }
+
+        /**
+         * Checks that formatting a few tricky values with this template gives the same result
+         * as String.format on this runtime, so that we never show something different.
+         */
+        private boolean agreesWithStringFormat() {
+            StringBuilder ours = new StringBuilder();
+            for (double value : PROBE_VALUES) {
+                ours.setLength(0);
+                for (int i = 0; i < argumentIndices.length; i++) {
+                    appendLiteral(ours, i);
+                    if (argumentIndices[i] == 0) {
+                        appendRounded(ours, value);
+                    } else {
+                        ours.append("NW");
+                    }
+                }
+                appendLiteral(ours, argumentIndices.length);
+
+                if (!ours.toString().equals(String.format(source, value, "NW"))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}